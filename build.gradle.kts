@@ -14,6 +14,13 @@ dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter")
 }
 
+// VectorRunScanner uses the incubating Vector API, and falls back to the
+// scalar RunScanner when a JVM is started without the module.
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
 tasks.test {
     useJUnitPlatform()
+    jvmArgs("--add-modules", "jdk.incubator.vector")
 }
\ No newline at end of file
@@ -0,0 +1,621 @@
+package plc.project;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A compact binary encoding of an {@link Ast.Source}, so that a file which
+ * has not changed can be loaded from a cache instead of lexed and parsed
+ * again. The encoding is, in order:
+ *
+ * <pre>
+ * magic     the bytes "PLCA"
+ * version   {@link #VERSION}
+ * strings   count, then the length and UTF-8 bytes of each string
+ * literals  count, then a tag and its value for each literal
+ * fields    count, then the name, constant flag and value? of each field
+ * methods   count, then the name, parameters and body length of each method
+ * bodies    the statements of each method, one after another
+ * </pre>
+ *
+ * Every number is a varint, using seven bits per byte with the high bit set
+ * on all but the last, so that counts, tags and the indices of names and
+ * literals mostly take a single byte. Each name, including operators, is
+ * written once in the table of strings, and each distinct literal value once
+ * in the pool of literals. Nodes are written in pre-order as a tag, which is
+ * the node's {@link FlatAst} kind, followed by their operands, where a list
+ * is its size followed by its elements and an absent optional node is the tag
+ * {@link #ABSENT}.
+ *
+ * Decoding reads the tables, fields and method signatures, and only decodes
+ * the statements of a method the first time they are read, from their range
+ * of the buffer, so loading a cached file (in particular one {@link #map
+ * mapped} into memory) costs little more than its signatures until the
+ * bodies are needed.
+ */
+public final class AstCodec {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'P', 'L', 'C', 'A'};
+
+    private static final int ABSENT = 16;
+
+    // the tags of literals in the pool
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INTEGER = 3;
+    private static final int BIG_INTEGER = 4;
+    private static final int DECIMAL = 5;
+    private static final int BIG_DECIMAL = 6;
+    private static final int CHARACTER = 7;
+    private static final int STRING = 8;
+
+    private AstCodec() {}
+
+    public static byte[] encode(Ast.Source source) {
+        return new Encoder().encode(source);
+    }
+
+    public static void write(Ast.Source source, Path path) throws IOException {
+        Files.write(path, encode(source));
+    }
+
+    /**
+     * Decodes a tree from the buffer, starting at its position. The bodies
+     * of methods are decoded from the buffer when first read, so it must not
+     * change while the tree is in use. Throws an {@link
+     * IllegalArgumentException} if the buffer does not start with an encoding
+     * of this version, or if a count or length in it, including the body
+     * lengths together, runs past the end of the buffer. Any other corruption
+     * in a body throws the same exception when the body is first read.
+     */
+    public static Ast.Source decode(ByteBuffer buffer) {
+        return new Decoder(buffer.slice()).decode();
+    }
+
+    /**
+     * Decodes the tree in the file at the given path, which is mapped into
+     * memory rather than read, as in {@link Lexer#map(Path)}.
+     */
+    public static Ast.Source map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static final class Encoder {
+
+        private final Output output = new Output();
+        private final Output fields = new Output();
+        private final Output methods = new Output();
+        private final Output bodies = new Output();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Object, Integer> literals = new HashMap<>();
+        private final List<Object> literalValues = new ArrayList<>();
+
+        private byte[] encode(Ast.Source source) {
+            fields.varint(source.getFields().size());
+            for (Ast.Field field : source.getFields()) {
+                fields.varint(name(field.getName()));
+                fields.varint(field.getConstant() ? 1 : 0);
+                encode(fields, field.getValue());
+            }
+            methods.varint(source.getMethods().size());
+            for (Ast.Method method : source.getMethods()) {
+                methods.varint(name(method.getName()));
+                methods.varint(method.getParameters().size());
+                for (String parameter : method.getParameters()) {
+                    methods.varint(name(parameter));
+                }
+                int start = bodies.size;
+                encodeStatements(bodies, method.getStatements());
+                methods.varint(bodies.size - start);
+            }
+
+            // literals may add strings, so they are encoded first
+            Output pool = new Output();
+            pool.varint(literalValues.size());
+            for (Object literal : literalValues) {
+                encodeLiteral(pool, literal);
+            }
+            output.bytes(MAGIC, MAGIC.length);
+            output.varint(VERSION);
+            String[] table = new String[strings.size()];
+            strings.forEach((string, index) -> table[index] = string);
+            output.varint(table.length);
+            for (String string : table) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                output.varint(bytes.length);
+                output.bytes(bytes, bytes.length);
+            }
+            output.bytes(pool.array, pool.size);
+            output.bytes(fields.array, fields.size);
+            output.bytes(methods.array, methods.size);
+            output.bytes(bodies.array, bodies.size);
+            return Arrays.copyOf(output.array, output.size);
+        }
+
+        private void encodeStatements(Output out, List<Ast.Statement> statements) {
+            out.varint(statements.size());
+            for (Ast.Statement statement : statements) {
+                encode(out, statement);
+            }
+        }
+
+        private void encode(Output out, Ast.Statement statement) {
+            if (statement instanceof Ast.Statement.Expression) {
+                out.varint(FlatAst.EXPRESSION_STATEMENT);
+                encode(out, ((Ast.Statement.Expression) statement).getExpression());
+            } else if (statement instanceof Ast.Statement.Declaration) {
+                Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) statement;
+                out.varint(FlatAst.DECLARATION);
+                out.varint(name(declaration.getName()));
+                encode(out, declaration.getValue());
+            } else if (statement instanceof Ast.Statement.Assignment) {
+                Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) statement;
+                out.varint(FlatAst.ASSIGNMENT);
+                encode(out, assignment.getReceiver());
+                encode(out, assignment.getValue());
+            } else if (statement instanceof Ast.Statement.If) {
+                Ast.Statement.If ast = (Ast.Statement.If) statement;
+                out.varint(FlatAst.IF);
+                encode(out, ast.getCondition());
+                encodeStatements(out, ast.getThenStatements());
+                encodeStatements(out, ast.getElseStatements());
+            } else if (statement instanceof Ast.Statement.For) {
+                Ast.Statement.For ast = (Ast.Statement.For) statement;
+                out.varint(FlatAst.FOR);
+                out.varint(name(ast.getName()));
+                encode(out, ast.getValue());
+                encodeStatements(out, ast.getStatements());
+            } else if (statement instanceof Ast.Statement.While) {
+                Ast.Statement.While ast = (Ast.Statement.While) statement;
+                out.varint(FlatAst.WHILE);
+                encode(out, ast.getCondition());
+                encodeStatements(out, ast.getStatements());
+            } else if (statement instanceof Ast.Statement.Return) {
+                out.varint(FlatAst.RETURN);
+                encode(out, ((Ast.Statement.Return) statement).getValue());
+            } else {
+                throw new AssertionError("Unknown statement: " + statement.getClass());
+            }
+        }
+
+        private void encode(Output out, Optional<Ast.Expression> expression) {
+            if (expression.isPresent()) {
+                encode(out, expression.get());
+            } else {
+                out.varint(ABSENT);
+            }
+        }
+
+        private void encode(Output out, Ast.Expression expression) {
+            if (expression instanceof Ast.Expression.Literal) {
+                out.varint(FlatAst.LITERAL);
+                out.varint(literal(((Ast.Expression.Literal) expression).getLiteral()));
+            } else if (expression instanceof Ast.Expression.Group) {
+                out.varint(FlatAst.GROUP);
+                encode(out, ((Ast.Expression.Group) expression).getExpression());
+            } else if (expression instanceof Ast.Expression.Binary) {
+                Ast.Expression.Binary binary = (Ast.Expression.Binary) expression;
+                out.varint(FlatAst.BINARY);
+                out.varint(name(binary.getOperator()));
+                encode(out, binary.getLeft());
+                encode(out, binary.getRight());
+            } else if (expression instanceof Ast.Expression.Access) {
+                Ast.Expression.Access access = (Ast.Expression.Access) expression;
+                out.varint(FlatAst.ACCESS);
+                out.varint(name(access.getName()));
+                encode(out, access.getReceiver());
+            } else if (expression instanceof Ast.Expression.Function) {
+                Ast.Expression.Function function = (Ast.Expression.Function) expression;
+                out.varint(FlatAst.FUNCTION);
+                out.varint(name(function.getName()));
+                encode(out, function.getReceiver());
+                out.varint(function.getArguments().size());
+                for (Ast.Expression argument : function.getArguments()) {
+                    encode(out, argument);
+                }
+            } else if (expression instanceof Ast.Expression.Error) {
+                out.varint(FlatAst.ERROR);
+                out.varint(name(((Ast.Expression.Error) expression).getMessage()));
+            } else {
+                throw new AssertionError("Unknown expression: " + expression.getClass());
+            }
+        }
+
+        /**
+         * Writes a literal of the pool, which is one of the types the parser
+         * produces. Integers and decimals whose (unscaled) value fits in a
+         * {@code long} are written as a zigzag varint, and others as the
+         * bytes of their {@link BigInteger}.
+         */
+        private void encodeLiteral(Output out, Object literal) {
+            if (literal == null) {
+                out.varint(NIL);
+            } else if (literal instanceof Boolean) {
+                out.varint((Boolean) literal ? TRUE : FALSE);
+            } else if (literal instanceof BigInteger) {
+                BigInteger integer = (BigInteger) literal;
+                if (integer.bitLength() < Long.SIZE) {
+                    out.varint(INTEGER);
+                    out.varlong(zigzag(integer.longValue()));
+                } else {
+                    out.varint(BIG_INTEGER);
+                    byte[] bytes = integer.toByteArray();
+                    out.varint(bytes.length);
+                    out.bytes(bytes, bytes.length);
+                }
+            } else if (literal instanceof BigDecimal) {
+                BigDecimal decimal = (BigDecimal) literal;
+                BigInteger unscaled = decimal.unscaledValue();
+                if (unscaled.bitLength() < Long.SIZE) {
+                    out.varint(DECIMAL);
+                    out.varlong(zigzag(decimal.scale()));
+                    out.varlong(zigzag(unscaled.longValue()));
+                } else {
+                    out.varint(BIG_DECIMAL);
+                    out.varlong(zigzag(decimal.scale()));
+                    byte[] bytes = unscaled.toByteArray();
+                    out.varint(bytes.length);
+                    out.bytes(bytes, bytes.length);
+                }
+            } else if (literal instanceof Character) {
+                out.varint(CHARACTER);
+                out.varint((Character) literal);
+            } else if (literal instanceof String) {
+                out.varint(STRING);
+                out.varint(name((String) literal));
+            } else {
+                throw new IllegalArgumentException("Cannot encode a literal of " + literal.getClass() + ".");
+            }
+        }
+
+        private int name(String name) {
+            return strings.computeIfAbsent(name, key -> strings.size());
+        }
+
+        /**
+         * Returns the index of the literal in the pool, shared by equal
+         * values as in {@link FlatAst}.
+         */
+        private int literal(Object literal) {
+            return literals.computeIfAbsent(literal, key -> {
+                literalValues.add(key);
+                return literalValues.size() - 1;
+            });
+        }
+
+        private static long zigzag(long value) {
+            return value << 1 ^ value >> 63;
+        }
+
+    }
+
+    /**
+     * A growable array of bytes with varint writes.
+     */
+    private static final class Output {
+
+        private byte[] array = new byte[256];
+        private int size = 0;
+
+        private void varint(int value) {
+            varlong(value & 0xFFFFFFFFL);
+        }
+
+        private void varlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                array[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            array[size++] = (byte) value;
+        }
+
+        private void bytes(byte[] bytes, int length) {
+            ensure(length);
+            System.arraycopy(bytes, 0, array, size, length);
+            size += length;
+        }
+
+        private void ensure(int length) {
+            if (size + length > array.length) {
+                array = Arrays.copyOf(array, Math.max(size + length, array.length + (array.length >> 1)));
+            }
+        }
+
+    }
+
+    /**
+     * Decodes the tables, fields and signatures of an encoding. The buffer is
+     * shared with the {@link LazyBody bodies} of its methods, which read
+     * their own duplicate of it, so it is never read past the signatures.
+     */
+    private static final class Decoder {
+
+        private final ByteBuffer buffer;
+        private String[] strings;
+        private Object[] literals;
+
+        private Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private Ast.Source decode() {
+            try {
+                for (byte magic : MAGIC) {
+                    if (buffer.get() != magic) {
+                        throw new IllegalArgumentException("Not an encoded AST.");
+                    }
+                }
+                int version = varint(buffer);
+                if (version != VERSION) {
+                    throw new IllegalArgumentException("Unsupported AST encoding version " + version + ".");
+                }
+                strings = new String[count(buffer)];
+                for (int i = 0; i < strings.length; i++) {
+                    byte[] bytes = new byte[count(buffer)];
+                    buffer.get(bytes);
+                    strings[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                literals = new Object[count(buffer)];
+                for (int i = 0; i < literals.length; i++) {
+                    literals[i] = decodeLiteral(buffer);
+                }
+                int fieldCount = count(buffer);
+                List<Ast.Field> fields = new ArrayList<>(fieldCount);
+                for (int i = 0; i < fieldCount; i++) {
+                    String name = strings[varint(buffer)];
+                    boolean constant = varint(buffer) != 0;
+                    fields.add(new Ast.Field(name, constant, decodeOptional(buffer)));
+                }
+                int methodCount = count(buffer);
+                String[] names = new String[methodCount];
+                List<List<String>> parameters = new ArrayList<>(methodCount);
+                int[] lengths = new int[methodCount];
+                for (int i = 0; i < methodCount; i++) {
+                    names[i] = strings[varint(buffer)];
+                    String[] list = new String[count(buffer)];
+                    for (int j = 0; j < list.length; j++) {
+                        list[j] = strings[varint(buffer)];
+                    }
+                    parameters.add(Arrays.asList(list));
+                    lengths[i] = count(buffer);
+                }
+                long total = 0;
+                for (int length : lengths) {
+                    total += length;
+                }
+                if (total > buffer.remaining()) {
+                    throw new IllegalArgumentException("Truncated or corrupt AST encoding.");
+                }
+                List<Ast.Method> methods = new ArrayList<>(methodCount);
+                int offset = buffer.position();
+                for (int i = 0; i < methodCount; i++) {
+                    methods.add(new Ast.Method(names[i], parameters.get(i), new LazyBody(this, offset)));
+                    offset += lengths[i];
+                }
+                return new Ast.Source(fields, methods);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Truncated or corrupt AST encoding.", e);
+            }
+        }
+
+        private List<Ast.Statement> decodeStatements(ByteBuffer in) {
+            Ast.Statement[] statements = new Ast.Statement[count(in)];
+            for (int i = 0; i < statements.length; i++) {
+                statements[i] = decodeStatement(in);
+            }
+            return Arrays.asList(statements);
+        }
+
+        private Ast.Statement decodeStatement(ByteBuffer in) {
+            int tag = varint(in);
+            switch (tag) {
+                case FlatAst.EXPRESSION_STATEMENT:
+                    return new Ast.Statement.Expression(decodeExpression(in));
+                case FlatAst.DECLARATION: {
+                    String name = strings[varint(in)];
+                    return new Ast.Statement.Declaration(name, decodeOptional(in));
+                }
+                case FlatAst.ASSIGNMENT: {
+                    Ast.Expression receiver = decodeExpression(in);
+                    return new Ast.Statement.Assignment(receiver, decodeExpression(in));
+                }
+                case FlatAst.IF: {
+                    Ast.Expression condition = decodeExpression(in);
+                    List<Ast.Statement> thenStatements = decodeStatements(in);
+                    return new Ast.Statement.If(condition, thenStatements, decodeStatements(in));
+                }
+                case FlatAst.FOR: {
+                    String name = strings[varint(in)];
+                    Ast.Expression value = decodeExpression(in);
+                    return new Ast.Statement.For(name, value, decodeStatements(in));
+                }
+                case FlatAst.WHILE: {
+                    Ast.Expression condition = decodeExpression(in);
+                    return new Ast.Statement.While(condition, decodeStatements(in));
+                }
+                case FlatAst.RETURN:
+                    return new Ast.Statement.Return(decodeExpression(in));
+                default:
+                    throw new IllegalArgumentException("Unknown statement tag " + tag + ".");
+            }
+        }
+
+        private Optional<Ast.Expression> decodeOptional(ByteBuffer in) {
+            int tag = varint(in);
+            return tag == ABSENT ? Optional.empty() : Optional.of(decodeExpression(in, tag));
+        }
+
+        private Ast.Expression decodeExpression(ByteBuffer in) {
+            return decodeExpression(in, varint(in));
+        }
+
+        private Ast.Expression decodeExpression(ByteBuffer in, int tag) {
+            switch (tag) {
+                case FlatAst.LITERAL:
+                    return new Ast.Expression.Literal(literals[varint(in)]);
+                case FlatAst.GROUP:
+                    return new Ast.Expression.Group(decodeExpression(in));
+                case FlatAst.BINARY: {
+                    String operator = strings[varint(in)];
+                    Ast.Expression left = decodeExpression(in);
+                    return new Ast.Expression.Binary(operator, left, decodeExpression(in));
+                }
+                case FlatAst.ACCESS: {
+                    String name = strings[varint(in)];
+                    return new Ast.Expression.Access(decodeOptional(in), name);
+                }
+                case FlatAst.FUNCTION: {
+                    String name = strings[varint(in)];
+                    Optional<Ast.Expression> receiver = decodeOptional(in);
+                    Ast.Expression[] arguments = new Ast.Expression[count(in)];
+                    for (int i = 0; i < arguments.length; i++) {
+                        arguments[i] = decodeExpression(in);
+                    }
+                    return new Ast.Expression.Function(receiver, name, Arrays.asList(arguments));
+                }
+                case FlatAst.ERROR:
+                    return new Ast.Expression.Error(strings[varint(in)]);
+                default:
+                    throw new IllegalArgumentException("Unknown expression tag " + tag + ".");
+            }
+        }
+
+        private Object decodeLiteral(ByteBuffer in) {
+            int tag = varint(in);
+            switch (tag) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case INTEGER:
+                    return Numbers.integer(unzigzag(varlong(in)));
+                case BIG_INTEGER:
+                    return new BigInteger(bytes(in));
+                case DECIMAL: {
+                    int scale = (int) unzigzag(varlong(in));
+                    return Numbers.decimal(unzigzag(varlong(in)), scale);
+                }
+                case BIG_DECIMAL: {
+                    int scale = (int) unzigzag(varlong(in));
+                    return new BigDecimal(new BigInteger(bytes(in)), scale);
+                }
+                case CHARACTER:
+                    return (char) varint(in);
+                case STRING:
+                    return strings[varint(in)];
+                default:
+                    throw new IllegalArgumentException("Unknown literal tag " + tag + ".");
+            }
+        }
+
+        private static byte[] bytes(ByteBuffer in) {
+            byte[] bytes = new byte[count(in)];
+            in.get(bytes);
+            return bytes;
+        }
+
+        /**
+         * Reads a count or length, which cannot exceed the bytes left in the
+         * buffer since every element takes at least one, so a corrupt count
+         * is rejected before anything is allocated for it.
+         */
+        private static int count(ByteBuffer in) {
+            long count = varlong(in);
+            if (count < 0 || count > in.remaining()) {
+                throw new IllegalArgumentException("Truncated or corrupt AST encoding.");
+            }
+            return (int) count;
+        }
+
+        private static int varint(ByteBuffer in) {
+            return (int) varlong(in);
+        }
+
+        private static long varlong(ByteBuffer in) {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private static long unzigzag(long value) {
+            return value >>> 1 ^ -(value & 1);
+        }
+
+    }
+
+    /**
+     * The statements of a method, decoded from the buffer when first read.
+     */
+    private static final class LazyBody extends AbstractList<Ast.Statement> {
+
+        private Decoder decoder;
+        private final int offset;
+        private volatile List<Ast.Statement> statements;
+
+        private LazyBody(Decoder decoder, int offset) {
+            this.decoder = decoder;
+            this.offset = offset;
+        }
+
+        @Override
+        public Ast.Statement get(int index) {
+            return statements().get(index);
+        }
+
+        @Override
+        public int size() {
+            return statements().size();
+        }
+
+        private List<Ast.Statement> statements() {
+            List<Ast.Statement> statements = this.statements;
+            if (statements == null) {
+                synchronized (this) {
+                    statements = this.statements;
+                    if (statements == null) {
+                        ByteBuffer in = decoder.buffer.duplicate();
+                        try {
+                            in.position(offset);
+                            statements = decoder.decodeStatements(in);
+                        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                            throw new IllegalArgumentException("Truncated or corrupt AST encoding.", e);
+                        }
+                        this.statements = statements;
+                        decoder = null;
+                    }
+                }
+            }
+            return statements;
+        }
+
+    }
+
+}
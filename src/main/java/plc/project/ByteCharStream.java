@@ -0,0 +1,289 @@
+package plc.project;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link CharStream} over UTF-8 encoded bytes held in memory, such as a
+ * {@code byte[]} read from the network or a mapped file, which lexes the bytes
+ * directly instead of decoding them into a string first. Indices are byte
+ * offsets.
+ *
+ * Everything outside string and character literals that can form a token is
+ * ASCII, so identifiers, numbers, operators and whitespace are lexed one byte
+ * per character with no decoding at all, and identifiers are interned and
+ * classified straight from the bytes. A byte outside ASCII can only start a
+ * literal's content or an invalid operator, and is the only place a multi-byte
+ * sequence is decoded: {@link #advance()} validates it and consumes it as one
+ * character, throwing a {@link ParseException} at its first byte if it is not
+ * well-formed UTF-8 (or reporting it and skipping the byte, with diagnostics).
+ *
+ * Emitted tokens refer to their range of the bytes and only decode their
+ * literal when it is requested.
+ */
+public final class ByteCharStream implements CharStream {
+
+    private static final RunScanner SCANNER = RunScanner.get();
+
+    private final ByteBuffer bytes;
+    private final byte[] array;
+    private final int base;
+    private final Token.Source source;
+    private final int limit;
+    private SymbolTable symbols;
+    private Diagnostics diagnostics;
+    private int index = 0;
+    private int length = 0;
+
+    public ByteCharStream(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Creates a stream over the bytes of the buffer from index zero to its
+     * limit. Heap buffers are read through their backing array, which is
+     * faster and lets runs be scanned with the {@link RunScanner}.
+     */
+    public ByteCharStream(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.array = bytes.hasArray() ? bytes.array() : null;
+        this.base = bytes.hasArray() ? bytes.arrayOffset() : 0;
+        this.limit = bytes.limit();
+        this.source = new Token.Source() {
+
+            @Override
+            public String slice(int start, int end) {
+                byte[] slice = new byte[end - start];
+                bytes.get(start, slice);
+                return new String(slice, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public boolean matches(int start, int end, String text) {
+                // text outside ASCII never equals a byte, so this is only
+                // exact for ASCII text, which includes every operator and
+                // keyword the parser compares against
+                if (end - start != text.length()) {
+                    return false;
+                }
+                for (int i = start; i < end; i++) {
+                    if ((bytes.get(i) & 0xFF) != text.charAt(i - start)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+        };
+    }
+
+    private ByteCharStream(ByteCharStream other, int index) {
+        this.bytes = other.bytes;
+        this.array = other.array;
+        this.base = other.base;
+        this.source = other.source;
+        this.limit = other.limit;
+        this.symbols = other.symbols;
+        this.index = index;
+    }
+
+    @Override
+    public boolean has(int offset) {
+        return index + offset < limit;
+    }
+
+    @Override
+    public char get(int offset) {
+        if (array != null) {
+            return (char) (array[base + index + offset] & 0xFF);
+        }
+        return (char) (bytes.get(index + offset) & 0xFF);
+    }
+
+    /**
+     * Returns the length of the UTF-8 sequence starting at index + offset, or
+     * {@code -1} for stray continuation bytes, truncated sequences, overlong
+     * encodings, surrogates and code points past {@code U+10FFFF}.
+     */
+    @Override
+    public int width(int offset) {
+        int position = index + offset;
+        int lead = bytes.get(position) & 0xFF;
+        if (lead < 0x80) {
+            return 1;
+        }
+        int width;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            width = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            width = 3;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            width = 4;
+        } else {
+            return -1;
+        }
+        if (position + width > limit) {
+            return -1;
+        }
+        for (int i = 1; i < width; i++) {
+            if ((bytes.get(position + i) & 0xC0) != 0x80) {
+                return -1;
+            }
+        }
+        int second = bytes.get(position + 1) & 0xFF;
+        if (lead == 0xE0 && second < 0xA0 || lead == 0xED && second > 0x9F
+                || lead == 0xF0 && second < 0x90 || lead == 0xF4 && second > 0x8F) {
+            return -1;
+        }
+        return width;
+    }
+
+    @Override
+    public void advance() {
+        int width = sequence();
+        index += width;
+        length += width;
+    }
+
+    @Override
+    public void advance(int units) {
+        index += units;
+        length += units;
+    }
+
+    /**
+     * Advances past the run, scanning ASCII with the {@link RunScanner} where
+     * there is an array. Whitespace and identifiers are ASCII, so a byte
+     * outside ASCII always ends them, while string bodies consume such a byte
+     * as a whole validated sequence and continue.
+     */
+    @Override
+    public void advance(RunScanner.Run run) {
+        int start = index;
+        if (array != null) {
+            while (true) {
+                index = SCANNER.scan(run, array, base + index, base + limit) - base;
+                if (run != RunScanner.Run.STRING_BODY || index == limit || array[base + index] >= 0) {
+                    break;
+                }
+                index += sequence();
+            }
+            length += index - start;
+            return;
+        }
+        while (index < limit) {
+            int b = bytes.get(index) & 0xFF;
+            if (b < 0x80) {
+                if (!run.matches((char) b)) {
+                    break;
+                }
+                index++;
+            } else if (run == RunScanner.Run.STRING_BODY) {
+                index += sequence();
+            } else {
+                break;
+            }
+        }
+        length += index - start;
+    }
+
+    @Override
+    public void skip() {
+        length = 0;
+    }
+
+    @Override
+    public void seek(int index) {
+        this.index = index;
+        this.length = 0;
+    }
+
+    @Override
+    public Token emit(Token.Type type) {
+        int start = index - length;
+        int kind = kind(type, start, index);
+        skip();
+        if (type == Token.Type.IDENTIFIER && symbols != null) {
+            int symbol = symbol(kind, start, index);
+            return new Token(type, symbols.getName(symbol), start, symbol);
+        }
+        return new Token(type, source, start, index, kind);
+    }
+
+    @Override
+    public void emit(Token.Type type, TokenBuffer tokens) {
+        int start = index - length;
+        int kind = kind(type, start, index);
+        int symbol = type == Token.Type.IDENTIFIER ? symbol(kind, start, index) : -1;
+        tokens.add(type, start, length, symbol, kind);
+        skip();
+    }
+
+    @Override
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public Token.Source getSource() {
+        return source;
+    }
+
+    @Override
+    public int getEnd() {
+        return limit;
+    }
+
+    @Override
+    public CharStream fork(int index) {
+        return new ByteCharStream(this, index);
+    }
+
+    @Override
+    public void setSymbols(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    @Override
+    public void setDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Returns the width of the sequence at the current index, handling a
+     * malformed sequence as described in {@link CharStream#advance()}.
+     */
+    private int sequence() {
+        int width = width(0);
+        if (width > 0) {
+            return width;
+        } else if (diagnostics == null) {
+            throw new ParseException("Invalid UTF-8 sequence", index);
+        }
+        diagnostics.report("Invalid UTF-8 sequence", index);
+        return 1;
+    }
+
+    /**
+     * Classifies the token {@code [start, end)} as a {@link TokenKind},
+     * comparing a keyword candidate against the bytes in place.
+     */
+    private int kind(Token.Type type, int start, int end) {
+        if (type == Token.Type.IDENTIFIER) {
+            int kind = TokenKind.candidate(end - start, (char) bytes.get(start), (char) bytes.get(end - 1));
+            return kind != TokenKind.NONE && source.matches(start, end, TokenKind.getName(kind)) ? kind : TokenKind.NONE;
+        } else if (type == Token.Type.OPERATOR) {
+            return TokenKind.operator((char) (bytes.get(start) & 0xFF), end - start == 2 ? (char) (bytes.get(start + 1) & 0xFF) : 0);
+        }
+        return TokenKind.NONE;
+    }
+
+    /**
+     * Returns the symbol of the identifier {@code [start, end)} of the given
+     * kind, interning other identifiers from the bytes without decoding them.
+     */
+    private int symbol(int kind, int start, int end) {
+        return TokenKind.isKeyword(kind) ? kind : symbols.intern(bytes, start, end);
+    }
+
+}
@@ -0,0 +1,73 @@
+package plc.project;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A single-character pattern, compiled once from a regex such as {@code
+ * "[A-Za-z0-9_]"} and then tested against individual characters.
+ *
+ * The ASCII range is answered from a 128-bit lookup table built by running the
+ * regex over every ASCII character at compile time, so checking a character
+ * there is two shifts and a mask with no allocation. Characters outside ASCII
+ * are rare in source code and fall back to the compiled regex, which keeps the
+ * semantics identical to {@code String.valueOf(c).matches(pattern)}.
+ */
+public final class CharClass {
+
+    private static final Map<String, CharClass> CACHE = new ConcurrentHashMap<>();
+
+    private final String pattern;
+    private final Pattern regex;
+    private final long low;
+    private final long high;
+
+    private CharClass(String pattern) {
+        this.pattern = pattern;
+        this.regex = Pattern.compile(pattern);
+        long low = 0, high = 0;
+        for (char c = 0; c < 128; c++) {
+            if (regex.matcher(String.valueOf(c)).matches()) {
+                if (c < 64) {
+                    low |= 1L << c;
+                } else {
+                    high |= 1L << (c - 64);
+                }
+            }
+        }
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Returns the compiled class for the given regex, compiling it on first use
+     * and caching it afterwards. The regex is expected to match exactly one
+     * character, like the patterns passed to {@link Lexer#peek(String...)}.
+     */
+    public static CharClass compile(String pattern) {
+        return CACHE.computeIfAbsent(pattern, CharClass::new);
+    }
+
+    /**
+     * Returns true if the character is a member of this class.
+     */
+    public boolean matches(char c) {
+        if (c < 64) {
+            return (low & 1L << c) != 0;
+        } else if (c < 128) {
+            return (high & 1L << (c - 64)) != 0;
+        }
+        return regex.matcher(String.valueOf(c)).matches();
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+}
@@ -0,0 +1,109 @@
+package plc.project;
+
+/**
+ * The input of a {@link Lexer}, maintaining the current index and the current
+ * length of the token being matched.
+ *
+ * You should rely on peek/match for state management in nearly all cases. The
+ * only state you need to access is {@link #getIndex()} for any {@link
+ * ParseException} which is thrown.
+ *
+ * Input is read in code units: chars for {@link TextCharStream} and bytes for
+ * {@link ByteCharStream}, and indices count these units. {@link #get(int)}
+ * looks ahead by units, which is exact for the ASCII characters the grammar is
+ * written in. {@link #advance()} consumes a whole character, however many units
+ * it takes, so characters outside ASCII are consumed as one.
+ */
+public interface CharStream {
+
+    /**
+     * Returns true if there is a unit at index + offset.
+     */
+    boolean has(int offset);
+
+    /**
+     * Gets the unit at index + offset as a char. Units outside ASCII are only
+     * ever compared against classes of ASCII characters (or their negations),
+     * so a byte stream may return the raw byte.
+     */
+    char get(int offset);
+
+    /**
+     * Returns the number of units taken by the character starting at index +
+     * offset, or {@code -1} if it is malformed.
+     */
+    int width(int offset);
+
+    /**
+     * Advances past the next character, adding it to the current token. A
+     * malformed character is thrown as a {@link ParseException}, or reported
+     * and skipped one unit at a time if there are diagnostics.
+     */
+    void advance();
+
+    /**
+     * Advances past the given number of units, adding them to the current
+     * token. The units must be whole characters already checked with {@link
+     * #width(int)}, so they are not validated again.
+     */
+    void advance(int units);
+
+    /**
+     * Advances past the run of characters of the given kind starting at the
+     * current index.
+     */
+    void advance(RunScanner.Run run);
+
+    /**
+     * Starts a new token at the current index.
+     */
+    void skip();
+
+    /**
+     * Moves to the given index of input held in memory and starts a new token
+     * there.
+     */
+    void seek(int index);
+
+    /**
+     * Emits the current token as a {@link Token} and starts a new token.
+     */
+    Token emit(Token.Type type);
+
+    /**
+     * Emits the current token into the buffer without creating a {@link Token}
+     * and starts a new token. This requires input held in memory.
+     */
+    void emit(Token.Type type, TokenBuffer tokens);
+
+    int getIndex();
+
+    /**
+     * Returns the source tokens of input held in memory refer to, or {@code
+     * null} if the input is streamed.
+     */
+    Token.Source getSource();
+
+    /**
+     * Returns the index just past the end of input held in memory.
+     */
+    int getEnd();
+
+    /**
+     * Creates a stream over the same input held in memory, starting at the
+     * given index, which shares this stream's symbol table.
+     */
+    CharStream fork(int index);
+
+    /**
+     * Sets the table identifiers are interned into when they are emitted.
+     */
+    void setSymbols(SymbolTable symbols);
+
+    /**
+     * Sets the sink errors in the input itself (such as malformed UTF-8) are
+     * reported to instead of being thrown, or {@code null} to throw them.
+     */
+    void setDiagnostics(Diagnostics diagnostics);
+
+}
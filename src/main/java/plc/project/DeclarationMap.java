@@ -0,0 +1,107 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Records the index of the first token of each declaration a {@link Parser}
+ * parses with {@link Parser#withDeclarations(DeclarationMap)}, which {@link
+ * Parser#reparseSource} uses to find the declarations an edit changed without
+ * positions in the tree itself.
+ *
+ * Declarations are numbered in the order of the source, which is the fields
+ * of the {@link Ast.Source} followed by its methods, so declaration {@code i}
+ * is {@code getFields().get(i)} for {@code i < getFields().size()} and a
+ * method after that. A declaration with an error is recorded like any other,
+ * since the parser puts a placeholder holding an {@link Ast.Expression.Error}
+ * in its place, so the numbers still match the lists of the tree.
+ */
+public final class DeclarationMap {
+
+    private int[] starts = new int[64];
+    private int size = 0;
+
+    /**
+     * Records that the next declaration starts at the given token index.
+     * Declarations must be added in order.
+     */
+    void add(int start) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length + (starts.length >> 1));
+        }
+        starts[size++] = start;
+    }
+
+    /**
+     * Adds the declarations of another map.
+     */
+    void addAll(DeclarationMap other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.starts[i]);
+        }
+    }
+
+    /**
+     * Replaces the declarations in {@code [from, to)} with those of another
+     * map, shifting the token indices of the declarations after them by
+     * {@code delta}.
+     */
+    void splice(int from, int to, DeclarationMap replacement, int delta) {
+        int tail = size - to;
+        int length = from + replacement.size + tail;
+        if (length > starts.length) {
+            starts = Arrays.copyOf(starts, Math.max(length, starts.length + (starts.length >> 1)));
+        }
+        System.arraycopy(starts, to, starts, from + replacement.size, tail);
+        System.arraycopy(replacement.starts, 0, starts, from, replacement.size);
+        for (int i = from + replacement.size; i < length; i++) {
+            starts[i] += delta;
+        }
+        size = length;
+    }
+
+    DeclarationMap copy() {
+        DeclarationMap copy = new DeclarationMap();
+        copy.starts = Arrays.copyOf(starts, Math.max(size, 1));
+        copy.size = size;
+        return copy;
+    }
+
+    public int getDeclarationCount() {
+        return size;
+    }
+
+    /**
+     * Returns the index of the first token of the given declaration.
+     */
+    public int getStart(int declaration) {
+        return starts[declaration];
+    }
+
+    /**
+     * Returns the declaration containing the token at the given index, which
+     * is the last one starting at or before it, or {@code -1} if the token is
+     * before the first declaration.
+     */
+    public int getDeclaration(int token) {
+        int low = -1, high = size - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >> 1;
+            if (starts[middle] <= token) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the declaration starting at exactly the given token index, or
+     * {@code -1} if none does.
+     */
+    int find(int token) {
+        int declaration = getDeclaration(token);
+        return declaration >= 0 && starts[declaration] == token ? declaration : -1;
+    }
+
+}
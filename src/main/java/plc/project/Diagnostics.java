@@ -0,0 +1,71 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * A sink for errors reported without throwing, such as by a {@link Lexer}
+ * with {@link Lexer#withDiagnostics(Diagnostics)}. Each diagnostic is a
+ * message and the index it applies to, as in a {@link ParseException}.
+ *
+ * Diagnostics are stored in parallel arrays allocated up front, so reporting
+ * one does not allocate until the initial capacity is exceeded, and a sink can
+ * be {@link #clear() cleared} and reused across many files.
+ */
+public final class Diagnostics {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private String[] messages;
+    private int[] indices;
+    private int size = 0;
+
+    public Diagnostics() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Diagnostics(int capacity) {
+        this.messages = new String[Math.max(capacity, 1)];
+        this.indices = new int[messages.length];
+    }
+
+    public void report(String message, int index) {
+        if (size == messages.length) {
+            int capacity = messages.length + (messages.length >> 1) + 1;
+            messages = Arrays.copyOf(messages, capacity);
+            indices = Arrays.copyOf(indices, capacity);
+        }
+        messages[size] = message;
+        indices[size] = index;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getMessage(int i) {
+        return messages[i];
+    }
+
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    /**
+     * Removes every diagnostic, keeping the arrays for reuse.
+     */
+    public void clear() {
+        Arrays.fill(messages, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            builder.append(i == 0 ? "" : ", ").append(messages[i]).append('@').append(indices[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+}
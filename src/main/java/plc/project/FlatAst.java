@@ -0,0 +1,494 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A flat encoding of an {@link Ast.Source}, which stores each node as four
+ * ints in a single array instead of an object holding {@link Optional}s and
+ * {@link List}s of other objects. A large program is then a handful of
+ * arrays, with no pointers for the garbage collector to trace and no objects
+ * to chase when walking it.
+ *
+ * A node is referred to by its index, and holds its kind (such as {@link
+ * #BINARY}) and three operands, whose meaning depends on the kind:
+ *
+ * <pre>
+ * SOURCE                fields       methods
+ * FIELD                 name         value?       constant
+ * METHOD                name         parameters   statements
+ * EXPRESSION_STATEMENT  expression
+ * DECLARATION           name         value?
+ * ASSIGNMENT            receiver     value
+ * IF                    condition    then         else
+ * FOR                   name         value        statements
+ * WHILE                 condition    statements
+ * RETURN                value
+ * LITERAL               literal
+ * GROUP                 expression
+ * BINARY                operator     left         right
+ * ACCESS                name         receiver?
+ * FUNCTION              name         receiver?    arguments
+ * ERROR                 message
+ * </pre>
+ *
+ * Nodes are indices of other nodes, where an optional one ({@code ?}) is
+ * {@link #NONE} if empty. Names, including operators and the messages of
+ * errors, are indices into a pool of strings shared by equal names, and
+ * literals are indices into a pool of values, both read with {@link
+ * #getName(int)} and {@link #getLiteral(int)}. Lists are offsets into a
+ * second array holding their size followed by their elements, read with
+ * {@link #getListSize(int)} and {@link #getListElement(int, int)}, and the
+ * parameters of a method are a list of names rather than nodes.
+ *
+ * Nodes are stored in pre-order from the {@link #SOURCE} at index {@code 0},
+ * so a pass which looks at each node on its own, such as counting calls, can
+ * simply loop over the indices in source order. The subtree of a node is
+ * then the range up to {@link #getEnd(int)}, which {@link #walk(int,
+ * Visitor)} uses to visit a subtree with its structure as a scan over that
+ * range, skipping a subtree by jumping past its end.
+ */
+public final class FlatAst {
+
+    public static final int NONE = -1;
+
+    public static final int SOURCE = 0;
+    public static final int FIELD = 1;
+    public static final int METHOD = 2;
+    public static final int EXPRESSION_STATEMENT = 3;
+    public static final int DECLARATION = 4;
+    public static final int ASSIGNMENT = 5;
+    public static final int IF = 6;
+    public static final int FOR = 7;
+    public static final int WHILE = 8;
+    public static final int RETURN = 9;
+    public static final int LITERAL = 10;
+    public static final int GROUP = 11;
+    public static final int BINARY = 12;
+    public static final int ACCESS = 13;
+    public static final int FUNCTION = 14;
+    public static final int ERROR = 15;
+
+    private static final int STRIDE = 4;
+
+    // the first int of a node holds its kind in the low bits and the size
+    // of its subtree in the rest
+    private static final int KIND_BITS = 4;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+    /**
+     * Visits the nodes of a subtree in {@link #walk(int, Visitor)}.
+     */
+    public interface Visitor {
+
+        /**
+         * Called before the children of the node, which are skipped if this
+         * returns {@code false}.
+         */
+        boolean enter(FlatAst ast, int node);
+
+        /**
+         * Called after the children of the node, if it was entered.
+         */
+        default void exit(FlatAst ast, int node) {}
+
+    }
+
+    private int[] nodes;
+    private int nodeCount;
+    private int[] lists;
+    private String[] strings;
+    private Object[] literals;
+
+    private FlatAst() {}
+
+    /**
+     * Encodes the tree, sharing its names and literal values.
+     */
+    public static FlatAst of(Ast.Source source) {
+        return new Encoder().encode(source);
+    }
+
+    /**
+     * Decodes the tree into objects equal to those it was encoded from.
+     */
+    public Ast.Source toAst() {
+        List<Ast.Field> fields = new ArrayList<>();
+        int list = get(0, 0);
+        for (int i = 0; i < getListSize(list); i++) {
+            int field = getListElement(list, i);
+            fields.add(new Ast.Field(getName(field), get(field, 2) != 0, decodeOptional(get(field, 1))));
+        }
+        List<Ast.Method> methods = new ArrayList<>();
+        list = get(0, 1);
+        for (int i = 0; i < getListSize(list); i++) {
+            int method = getListElement(list, i);
+            int parameters = get(method, 1);
+            List<String> names = new ArrayList<>(getListSize(parameters));
+            for (int j = 0; j < getListSize(parameters); j++) {
+                names.add(getString(getListElement(parameters, j)));
+            }
+            methods.add(new Ast.Method(getName(method), names, decodeStatements(get(method, 2))));
+        }
+        return new Ast.Source(fields, methods);
+    }
+
+    public int getRoot() {
+        return 0;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getKind(int node) {
+        return nodes[node * STRIDE] & KIND_MASK;
+    }
+
+    /**
+     * Returns the index just past the last node of the node's subtree, which
+     * is where its next sibling (or the next sibling of an ancestor) starts.
+     */
+    public int getEnd(int node) {
+        return node + (nodes[node * STRIDE] >>> KIND_BITS);
+    }
+
+    /**
+     * Returns the operand {@code 0}, {@code 1} or {@code 2} of the node, as
+     * laid out in the table above.
+     */
+    public int get(int node, int operand) {
+        return nodes[node * STRIDE + 1 + operand];
+    }
+
+    /**
+     * Returns the name (or operator) of a node whose first operand is one.
+     */
+    public String getName(int node) {
+        return strings[get(node, 0)];
+    }
+
+    /**
+     * Returns a name from the pool, such as an element of a method's
+     * parameters.
+     */
+    public String getString(int name) {
+        return strings[name];
+    }
+
+    public Object getLiteral(int node) {
+        return literals[get(node, 0)];
+    }
+
+    public int getListSize(int list) {
+        return lists[list];
+    }
+
+    public int getListElement(int list, int index) {
+        return lists[list + 1 + index];
+    }
+
+    /**
+     * Visits the subtree of the node depth first, calling the visitor for
+     * each node before and after its children, in the order they appear in
+     * the source.
+     */
+    public void walk(int node, Visitor visitor) {
+        // the subtree is a range of nodes in pre-order, so this only needs
+        // to find where entered nodes end and skip those not entered
+        IntStack entered = new IntStack();
+        int end = getEnd(node);
+        int next = node;
+        while (next < end) {
+            while (entered.size > 0 && next >= getEnd(entered.peek())) {
+                visitor.exit(this, entered.pop());
+            }
+            if (visitor.enter(this, next)) {
+                entered.push(next++);
+            } else {
+                next = getEnd(next);
+            }
+        }
+        while (entered.size > 0) {
+            visitor.exit(this, entered.pop());
+        }
+    }
+
+    private Optional<Ast.Expression> decodeOptional(int node) {
+        return node == NONE ? Optional.empty() : Optional.of(decodeExpression(node));
+    }
+
+    private List<Ast.Statement> decodeStatements(int list) {
+        List<Ast.Statement> statements = new ArrayList<>(getListSize(list));
+        for (int i = 0; i < getListSize(list); i++) {
+            statements.add(decodeStatement(getListElement(list, i)));
+        }
+        return statements;
+    }
+
+    private Ast.Statement decodeStatement(int node) {
+        switch (getKind(node)) {
+            case EXPRESSION_STATEMENT:
+                return new Ast.Statement.Expression(decodeExpression(get(node, 0)));
+            case DECLARATION:
+                return new Ast.Statement.Declaration(getName(node), decodeOptional(get(node, 1)));
+            case ASSIGNMENT:
+                return new Ast.Statement.Assignment(decodeExpression(get(node, 0)), decodeExpression(get(node, 1)));
+            case IF:
+                return new Ast.Statement.If(decodeExpression(get(node, 0)), decodeStatements(get(node, 1)), decodeStatements(get(node, 2)));
+            case FOR:
+                return new Ast.Statement.For(getName(node), decodeExpression(get(node, 1)), decodeStatements(get(node, 2)));
+            case WHILE:
+                return new Ast.Statement.While(decodeExpression(get(node, 0)), decodeStatements(get(node, 1)));
+            case RETURN:
+                return new Ast.Statement.Return(decodeExpression(get(node, 0)));
+            default:
+                throw new AssertionError("Not a statement: " + getKind(node));
+        }
+    }
+
+    private Ast.Expression decodeExpression(int node) {
+        switch (getKind(node)) {
+            case LITERAL:
+                return new Ast.Expression.Literal(getLiteral(node));
+            case GROUP:
+                return new Ast.Expression.Group(decodeExpression(get(node, 0)));
+            case BINARY:
+                return new Ast.Expression.Binary(getName(node), decodeExpression(get(node, 1)), decodeExpression(get(node, 2)));
+            case ACCESS:
+                return new Ast.Expression.Access(decodeOptional(get(node, 1)), getName(node));
+            case FUNCTION: {
+                int list = get(node, 2);
+                List<Ast.Expression> arguments = new ArrayList<>(getListSize(list));
+                for (int i = 0; i < getListSize(list); i++) {
+                    arguments.add(decodeExpression(getListElement(list, i)));
+                }
+                return new Ast.Expression.Function(decodeOptional(get(node, 1)), getName(node), arguments);
+            }
+            case ERROR:
+                return new Ast.Expression.Error(getName(node));
+            default:
+                throw new AssertionError("Not an expression: " + getKind(node));
+        }
+    }
+
+    /**
+     * Encodes a tree in pre-order, reserving each node before encoding its
+     * children. The elements of a list are collected on a stack shared by
+     * the lists being encoded, and only written once all are known, so each
+     * list is contiguous. The arrays are trimmed to size at the end.
+     */
+    private static final class Encoder {
+
+        private int[] nodes = new int[256 * STRIDE];
+        private int nodeCount = 0;
+        private int[] lists = new int[256];
+        private int listSize = 0;
+        private final IntStack elements = new IntStack();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Object, Integer> literals = new HashMap<>();
+
+        private FlatAst encode(Ast.Source source) {
+            int root = node(SOURCE);
+            int base = elements.size;
+            for (Ast.Field field : source.getFields()) {
+                int node = node(FIELD);
+                set(node, name(field.getName()), encode(field.getValue()), field.getConstant() ? 1 : 0);
+                elements.push(node);
+            }
+            int fields = list(base);
+            for (Ast.Method method : source.getMethods()) {
+                int node = node(METHOD);
+                int parameterBase = elements.size;
+                for (String parameter : method.getParameters()) {
+                    elements.push(name(parameter));
+                }
+                int parameters = list(parameterBase);
+                set(node, name(method.getName()), parameters, encodeStatements(method.getStatements()));
+                elements.push(node);
+            }
+            set(root, fields, list(base), 0);
+
+            FlatAst ast = new FlatAst();
+            ast.nodes = Arrays.copyOf(nodes, nodeCount * STRIDE);
+            ast.nodeCount = nodeCount;
+            ast.lists = Arrays.copyOf(lists, listSize);
+            ast.strings = new String[strings.size()];
+            strings.forEach((string, index) -> ast.strings[index] = string);
+            ast.literals = new Object[literals.size()];
+            literals.forEach((literal, index) -> ast.literals[index] = literal);
+            return ast;
+        }
+
+        private int encodeStatements(List<Ast.Statement> statements) {
+            int base = elements.size;
+            for (Ast.Statement statement : statements) {
+                elements.push(encode(statement));
+            }
+            return list(base);
+        }
+
+        private int encode(Ast.Statement statement) {
+            if (statement instanceof Ast.Statement.Expression) {
+                int node = node(EXPRESSION_STATEMENT);
+                set(node, encode(((Ast.Statement.Expression) statement).getExpression()), 0, 0);
+                return node;
+            } else if (statement instanceof Ast.Statement.Declaration) {
+                Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) statement;
+                int node = node(DECLARATION);
+                set(node, name(declaration.getName()), encode(declaration.getValue()), 0);
+                return node;
+            } else if (statement instanceof Ast.Statement.Assignment) {
+                Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) statement;
+                int node = node(ASSIGNMENT);
+                set(node, encode(assignment.getReceiver()), encode(assignment.getValue()), 0);
+                return node;
+            } else if (statement instanceof Ast.Statement.If) {
+                Ast.Statement.If ast = (Ast.Statement.If) statement;
+                int node = node(IF);
+                int condition = encode(ast.getCondition());
+                int thenStatements = encodeStatements(ast.getThenStatements());
+                set(node, condition, thenStatements, encodeStatements(ast.getElseStatements()));
+                return node;
+            } else if (statement instanceof Ast.Statement.For) {
+                Ast.Statement.For ast = (Ast.Statement.For) statement;
+                int node = node(FOR);
+                int value = encode(ast.getValue());
+                set(node, name(ast.getName()), value, encodeStatements(ast.getStatements()));
+                return node;
+            } else if (statement instanceof Ast.Statement.While) {
+                Ast.Statement.While ast = (Ast.Statement.While) statement;
+                int node = node(WHILE);
+                int condition = encode(ast.getCondition());
+                set(node, condition, encodeStatements(ast.getStatements()), 0);
+                return node;
+            } else if (statement instanceof Ast.Statement.Return) {
+                int node = node(RETURN);
+                set(node, encode(((Ast.Statement.Return) statement).getValue()), 0, 0);
+                return node;
+            }
+            throw new AssertionError("Unknown statement: " + statement.getClass());
+        }
+
+        private int encode(Optional<Ast.Expression> expression) {
+            return expression.isPresent() ? encode(expression.get()) : NONE;
+        }
+
+        private int encode(Ast.Expression expression) {
+            if (expression instanceof Ast.Expression.Literal) {
+                int node = node(LITERAL);
+                set(node, literal(((Ast.Expression.Literal) expression).getLiteral()), 0, 0);
+                return node;
+            } else if (expression instanceof Ast.Expression.Group) {
+                int node = node(GROUP);
+                set(node, encode(((Ast.Expression.Group) expression).getExpression()), 0, 0);
+                return node;
+            } else if (expression instanceof Ast.Expression.Binary) {
+                Ast.Expression.Binary binary = (Ast.Expression.Binary) expression;
+                int node = node(BINARY);
+                int left = encode(binary.getLeft());
+                set(node, name(binary.getOperator()), left, encode(binary.getRight()));
+                return node;
+            } else if (expression instanceof Ast.Expression.Access) {
+                Ast.Expression.Access access = (Ast.Expression.Access) expression;
+                int node = node(ACCESS);
+                set(node, name(access.getName()), encode(access.getReceiver()), 0);
+                return node;
+            } else if (expression instanceof Ast.Expression.Function) {
+                Ast.Expression.Function function = (Ast.Expression.Function) expression;
+                int node = node(FUNCTION);
+                int receiver = encode(function.getReceiver());
+                int base = elements.size;
+                for (Ast.Expression argument : function.getArguments()) {
+                    elements.push(encode(argument));
+                }
+                set(node, name(function.getName()), receiver, list(base));
+                return node;
+            } else if (expression instanceof Ast.Expression.Error) {
+                int node = node(ERROR);
+                set(node, name(((Ast.Expression.Error) expression).getMessage()), 0, 0);
+                return node;
+            }
+            throw new AssertionError("Unknown expression: " + expression.getClass());
+        }
+
+        private int node(int kind) {
+            if ((nodeCount + 1) * STRIDE > nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length + (nodes.length >> 1));
+            }
+            nodes[nodeCount * STRIDE] = kind;
+            return nodeCount++;
+        }
+
+        /**
+         * Sets the operands of the node, which must be called once its
+         * children are encoded, since this also records its subtree size.
+         */
+        private void set(int node, int first, int second, int third) {
+            nodes[node * STRIDE] |= (nodeCount - node) << KIND_BITS;
+            nodes[node * STRIDE + 1] = first;
+            nodes[node * STRIDE + 2] = second;
+            nodes[node * STRIDE + 3] = third;
+        }
+
+        /**
+         * Writes the elements pushed since the base as a list, and pops them.
+         */
+        private int list(int base) {
+            int size = elements.size - base;
+            if (listSize + size + 1 > lists.length) {
+                lists = Arrays.copyOf(lists, Math.max(listSize + size + 1, lists.length + (lists.length >> 1)));
+            }
+            int list = listSize;
+            lists[listSize++] = size;
+            System.arraycopy(elements.values, base, lists, listSize, size);
+            listSize += size;
+            elements.size = base;
+            return list;
+        }
+
+        private int name(String name) {
+            return strings.computeIfAbsent(name, key -> strings.size());
+        }
+
+        /**
+         * Returns the index of the literal in the pool, shared by equal
+         * values, which for literals also means the same class and for
+         * decimals the same scale.
+         */
+        private int literal(Object literal) {
+            return literals.computeIfAbsent(literal, key -> literals.size());
+        }
+
+    }
+
+    /**
+     * A growable stack of ints.
+     */
+    private static final class IntStack {
+
+        private int[] values = new int[64];
+        private int size = 0;
+
+        private void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length + (values.length >> 1));
+            }
+            values[size++] = value;
+        }
+
+        private int pop() {
+            return values[--size];
+        }
+
+        private int peek() {
+            return values[size - 1];
+        }
+
+    }
+
+}
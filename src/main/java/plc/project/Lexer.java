@@ -1,10 +1,26 @@
 package plc.project;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The lexer works through three main functions:
@@ -15,16 +31,183 @@ import java.util.regex.Matcher;
  *
  * If the lexer fails to parse something (such as an unterminated string) you
  * should throw a {@link ParseException} with an index at the invalid character.
+ * With {@link #withDiagnostics(Diagnostics)}, errors are reported there instead
+ * and the lexer recovers, producing {@link Token.Type#ERROR} tokens.
  *
  * The {@link #peek(String...)} and {@link #match(String...)} functions are
  * helpers you need to use, they will make the implementation easier.
  */
 public final class Lexer {
 
+    private static final CharClass WHITESPACE = CharClass.compile("[ \t\r\n]");
+    private static final CharClass IDENTIFIER_START = CharClass.compile("[A-Za-z_]");
+    private static final CharClass IDENTIFIER_PART = CharClass.compile("[A-Za-z0-9_]");
+    private static final CharClass DIGIT = CharClass.compile("[0-9]");
+    private static final CharClass NONZERO_DIGIT = CharClass.compile("[1-9]");
+    private static final CharClass ZERO = CharClass.compile("0");
+    private static final CharClass MINUS = CharClass.compile("-");
+    private static final CharClass DOT = CharClass.compile("\\.");
+    private static final CharClass SINGLE_QUOTE = CharClass.compile("'");
+    private static final CharClass DOUBLE_QUOTE = CharClass.compile("\"");
+    private static final CharClass BACKSLASH = CharClass.compile("\\\\");
+    private static final CharClass ESCAPE = CharClass.compile("[bnrt'\"\\\\]");
+    private static final CharClass CHARACTER_BODY = CharClass.compile("[^'\\\\]");
+    private static final CharClass COMPARISON = CharClass.compile("[<>!=]");
+    private static final CharClass EQUALS = CharClass.compile("=");
+    private static final CharClass AMPERSAND = CharClass.compile("&");
+    private static final CharClass PIPE = CharClass.compile("\\|");
+
+    /**
+     * Selects how {@link #lexToken()} recognizes tokens: by recursive descent
+     * through the lex methods below, or by running the table-driven {@link
+     * TokenDfa}. Both produce the same tokens and errors.
+     */
+    public enum Mode {
+        DESCENT,
+        DFA
+    }
+
+    /**
+     * The number of characters past the end of a token the lexer may read
+     * before deciding where that token ends, which is two for an integer
+     * followed by a {@code '.'} and then a non-digit.
+     */
+    private static final int RELEX_LOOKAHEAD = 2;
+
     private final CharStream chars;
+    private final Mode mode;
+    private SymbolTable symbols;
+    private Diagnostics diagnostics;
+    private LineMap lines;
+    private int errors = 0;
 
     public Lexer(String input) {
-        chars = new CharStream(input);
+        this(input, Mode.DESCENT);
+    }
+
+    public Lexer(String input, Mode mode) {
+        this(new TextCharStream(input), mode);
+    }
+
+    /**
+     * Creates a lexer which pulls its input from the reader as tokens are
+     * requested through {@link #iterator()}, holding only a bounded window of
+     * the input in memory.
+     */
+    public Lexer(Reader reader) {
+        this(reader, Mode.DESCENT);
+    }
+
+    public Lexer(Reader reader, Mode mode) {
+        this(new TextCharStream(reader), mode);
+    }
+
+    /**
+     * Creates a streaming lexer over UTF-8 encoded input from the channel, as
+     * in {@link #Lexer(Reader)}.
+     */
+    public Lexer(ReadableByteChannel channel) {
+        this(channel, Mode.DESCENT);
+    }
+
+    public Lexer(ReadableByteChannel channel, Mode mode) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1), mode);
+    }
+
+    /**
+     * Creates a lexer over UTF-8 encoded bytes, which are lexed directly by a
+     * {@link ByteCharStream} without being decoded into a string. Tokens refer
+     * to their range of the bytes, with indices as byte offsets, and only
+     * decode their literal when it is requested.
+     */
+    public Lexer(byte[] bytes) {
+        this(bytes, Mode.DESCENT);
+    }
+
+    public Lexer(byte[] bytes, Mode mode) {
+        this(new ByteCharStream(bytes), mode);
+    }
+
+    /**
+     * Creates a lexer over UTF-8 encoded bytes such as a mapped file, as in
+     * {@link #Lexer(byte[])}.
+     */
+    public Lexer(ByteBuffer bytes) {
+        this(bytes, Mode.DESCENT);
+    }
+
+    public Lexer(ByteBuffer bytes, Mode mode) {
+        this(new ByteCharStream(bytes), mode);
+    }
+
+    /**
+     * Creates a lexer over the file at the given path, which is mapped into
+     * memory rather than read, as in {@link #Lexer(ByteBuffer)}. Files are
+     * limited to 2GB by {@link FileChannel#map}.
+     */
+    public static Lexer map(Path path) throws IOException {
+        return map(path, Mode.DESCENT);
+    }
+
+    public static Lexer map(Path path, Mode mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Lexer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), mode);
+        }
+    }
+
+    private Lexer(CharStream chars, Mode mode) {
+        this.chars = chars;
+        this.mode = mode;
+        withSymbols(new SymbolTable());
+    }
+
+    /**
+     * Sets the table identifiers are interned into, which by default is a new
+     * table for each lexer. Sharing one table across the lexers of a batch
+     * deduplicates identifiers across the whole batch.
+     */
+    public Lexer withSymbols(SymbolTable symbols) {
+        this.symbols = symbols;
+        chars.setSymbols(symbols);
+        return this;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Reports errors to the given sink instead of throwing them, or throws
+     * them again if it is {@code null}. The lexer then never throws a {@link
+     * ParseException}: an erroneous literal is skipped up to its closing quote
+     * (or, for a character literal, the next whitespace) and emitted as an
+     * {@link Token.Type#ERROR} token, so one pass reports every error in the
+     * input. The first error reported is at the index that would have been
+     * thrown.
+     */
+    public Lexer withDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        chars.setDiagnostics(diagnostics);
+        return this;
+    }
+
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Records the offsets of newlines into the given map as the input is
+     * lexed, or stops recording if it is {@code null}. Newlines are found in
+     * the whitespace being skipped and in the literals which may contain them,
+     * so the rest of the input is never looked at twice.
+     */
+    public Lexer withLines(LineMap lines) {
+        this.lines = lines;
+        return this;
+    }
+
+    public LineMap getLines() {
+        return lines;
     }
 
     /**
@@ -35,15 +218,270 @@ public final class Lexer {
         List<Token> tokens = new ArrayList<>();
 
         while (chars.has(0)) {
-            if (peek("[ \t\r\n]")) {
-                chars.advance();
+            if (peek(WHITESPACE)) {
+                skipWhitespace();
             } else {
-                tokens.add(lexToken());
+                tokens.add(record(lexToken()));
             }
         }
 
         return tokens;
-        //throw new UnsupportedOperationException(); //TODO
+    }
+
+    /**
+     * Lexes the input in the same way as {@link #lex()} on the executor,
+     * handing tokens to the consumer of the returned ring (such as a {@link
+     * Parser}) as they are lexed, so that lexing and parsing overlap.
+     */
+    public TokenRing lexAsync(Executor executor, int capacity) {
+        TokenRing ring = new TokenRing(capacity);
+        executor.execute(() -> lex(ring));
+        return ring;
+    }
+
+    /**
+     * Lexes the input into the ring, waiting whenever it is full, and then
+     * closes it. An exception is passed to the consumer by failing the ring
+     * rather than thrown, and lexing stops early if the consumer cancels. An
+     * {@link Error} fails the ring as well, so the consumer does not wait for
+     * tokens that will never come, and is then thrown again.
+     */
+    public void lex(TokenRing ring) {
+        try {
+            while (chars.has(0)) {
+                if (peek(WHITESPACE)) {
+                    skipWhitespace();
+                } else if (!ring.put(record(lexToken()))) {
+                    return;
+                }
+            }
+            ring.close();
+        } catch (RuntimeException e) {
+            ring.fail(e);
+        } catch (Error e) {
+            ring.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Lexes the input in the same way as {@link #lex()}, but stores the tokens
+     * in a compact {@link TokenBuffer}. In {@link Mode#DFA} no {@link Token}
+     * objects are created at all.
+     *
+     * The buffer refers back to the input for literals, so this requires input
+     * held in memory rather than streamed from a reader.
+     */
+    public TokenBuffer lexBuffer() {
+        if (chars.getSource() == null) {
+            throw new UnsupportedOperationException("Streamed input cannot be lexed into a TokenBuffer.");
+        }
+        TokenBuffer tokens = new TokenBuffer(chars.getSource(), symbols, 16);
+
+        while (chars.has(0)) {
+            if (peek(WHITESPACE)) {
+                skipWhitespace();
+            } else {
+                chars.skip();
+                int start = chars.getIndex();
+                Token.Type type = mode == Mode.DFA ? scanDfa() : null;
+                if (type != null) {
+                    chars.emit(type, tokens);
+                    record(type, start);
+                } else {
+                    Token token = record(lexToken());
+                    tokens.add(token.getType(), token.getIndex(), token.getEnd() - token.getIndex(), token.getSymbol(), token.getKind());
+                }
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Updates the tokens of a document after an edit which replaced {@code
+     * removed} characters at {@code offset} with {@code inserted}, where {@code
+     * input} is the document after the edit, such as the buffer an editor
+     * holds it in, and {@code previous} its tokens before it.
+     *
+     * Lexing restarts at the first token the edit could have affected and
+     * stops as soon as a token starts past the edit at the same place a
+     * previous token did, since lexing from there sees the same characters as
+     * before. The input is read from the restart through a window rather than
+     * copied, and the result is a view of the previous tokens before and after
+     * the edit around the new ones, with those after it moved by the change in
+     * length as they are read, so the work done depends on the size of the
+     * edit rather than the document. The new tokens hold their literal, so the
+     * input may change afterwards. Identifiers are interned into the given
+     * table, which should be the one the previous tokens used.
+     */
+    public static List<Token> relex(CharSequence input, List<Token> previous, int offset, int removed, String inserted, SymbolTable symbols) {
+        int delta = inserted.length() - removed;
+        int editEnd = offset + inserted.length();
+
+        int low = firstAffected(previous, offset);
+        List<Token> tokens = new ArrayList<>();
+        int next = low;
+        while (next < previous.size() && previous.get(next).getIndex() < offset + removed) {
+            next++;
+        }
+
+        int start = low > 0 ? previous.get(low - 1).getEnd() : 0;
+        Lexer lexer = new Lexer(new TextCharStream(input, start), Mode.DESCENT).withSymbols(symbols);
+        CharStream chars = lexer.chars;
+        while (chars.has(0)) {
+            if (lexer.peek(WHITESPACE)) {
+                chars.advance(RunScanner.Run.WHITESPACE);
+                continue;
+            }
+            if (chars.getIndex() >= editEnd) {
+                while (next < previous.size() && previous.get(next).getIndex() + delta < chars.getIndex()) {
+                    next++;
+                }
+                if (next < previous.size() && previous.get(next).getIndex() + delta == chars.getIndex()) {
+                    return EditedTokens.of(previous, low, tokens, next, delta);
+                }
+            }
+            tokens.add(lexer.lexToken());
+        }
+        return EditedTokens.of(previous, low, tokens, previous.size(), delta);
+    }
+
+    /**
+     * Returns the index of the first of the tokens which an edit at the given
+     * offset could change. A token depends on the characters up to {@link
+     * #RELEX_LOOKAHEAD} past its end, so this is the first whose lookahead
+     * reaches the edit, and every token before it is the same after the edit.
+     */
+    static int firstAffected(List<Token> tokens, int offset) {
+        int low = 0, high = tokens.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens.get(middle).getEnd() + RELEX_LOOKAHEAD <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Lexes the input in the same way as {@link #lex()}, splitting it into the
+     * given number of chunks which are lexed speculatively in parallel on the
+     * pool. This requires input held in memory rather than streamed.
+     *
+     * Each chunk is lexed as if it started at a token boundary, which is wrong
+     * if it starts inside a literal (or the middle of any other token). The
+     * chunks are then merged in order by lexing sequentially from where the
+     * previous chunk actually ended until reaching a position where the chunk
+     * also started a token, after which its tokens are the same as sequential
+     * lexing would produce. This handles escaped quotes and {@code '"'} without
+     * needing a separate scan for literal boundaries, and any error is thrown
+     * by the sequential part exactly as {@link #lex()} would throw it.
+     */
+    public List<Token> lexParallel(ForkJoinPool pool, int chunks) {
+        if (chars.getSource() == null) {
+            throw new UnsupportedOperationException("Streamed input cannot be lexed in parallel.");
+        }
+        int start = chars.getIndex();
+        int length = chars.getEnd() - start;
+        int[] bounds = new int[chunks + 1];
+        for (int i = 0; i <= chunks; i++) {
+            bounds[i] = start + (int) ((long) length * i / chunks);
+        }
+
+        List<ForkJoinTask<List<Token>>> tasks = new ArrayList<>();
+        LineMap[] chunkLines = new LineMap[chunks];
+        for (int i = 0; i < chunks; i++) {
+            chunkLines[i] = lines != null ? new LineMap() : null;
+            Lexer lexer = new Lexer(chars.fork(bounds[i]), mode).withSymbols(symbols).withLines(chunkLines[i]);
+            int end = bounds[i + 1];
+            tasks.add(pool.submit(() -> lexer.lexSpeculative(end)));
+        }
+
+        List<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            List<Token> speculative = tasks.get(i).join();
+            int next = 0;
+            while (chars.has(0) && chars.getIndex() < bounds[i + 1]) {
+                if (peek(WHITESPACE)) {
+                    skipWhitespace();
+                    continue;
+                }
+                while (next < speculative.size() && speculative.get(next).getIndex() < chars.getIndex()) {
+                    next++;
+                }
+                if (next < speculative.size() && speculative.get(next).getIndex() == chars.getIndex()) {
+                    // newlines do not depend on where tokens start, so the
+                    // chunk's are right for everything it lexed from here
+                    int end = speculative.get(speculative.size() - 1).getEnd();
+                    if (lines != null) {
+                        lines.addAll(chunkLines[i], chars.getIndex(), end);
+                    }
+                    tokens.addAll(speculative.subList(next, speculative.size()));
+                    chars.seek(end);
+                    next = speculative.size();
+                } else {
+                    tokens.add(record(lexToken()));
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Lexes tokens starting before the given end index, stopping early without
+     * throwing if the input turns out not to lex from this position.
+     */
+    private List<Token> lexSpeculative(int end) {
+        List<Token> tokens = new ArrayList<>();
+        try {
+            while (chars.has(0) && chars.getIndex() < end) {
+                if (peek(WHITESPACE)) {
+                    skipWhitespace();
+                } else {
+                    tokens.add(record(lexToken()));
+                }
+            }
+        } catch (ParseException e) {
+            // the merge lexes past here sequentially, and rethrows if the error
+            // is real rather than an artifact of a misaligned chunk start
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns an iterator which lexes one token at a time on demand, skipping
+     * whitespace in the same way as {@link #lex()}. Combined with a streaming
+     * constructor, this lexes input of any size in bounded memory.
+     */
+    public Iterator<Token> iterator() {
+        return new Iterator<Token>() {
+
+            @Override
+            public boolean hasNext() {
+                skipWhitespace();
+                return chars.has(0);
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return record(lexToken());
+            }
+
+        };
+    }
+
+    /**
+     * Returns a sequential, ordered spliterator over the tokens of {@link
+     * #iterator()}, for use with {@code StreamSupport.stream}.
+     */
+    public Spliterator<Token> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
     }
 
     /**
@@ -55,230 +493,323 @@ public final class Lexer {
      * by {@link #lex()}
      */
     public Token lexToken() {
-        if (peek("[a-zA-Z_][A-Za-z0-9_]*]")) {
+        chars.skip();
+        if (diagnostics != null) {
+            errors = diagnostics.size();
+        }
+        if (mode == Mode.DFA) {
+            Token.Type type = scanDfa();
+            if (type != null) {
+                return chars.emit(type);
+            }
+        }
+        if (peek(IDENTIFIER_START)) {
             return lexIdentifier();
-        } else if (peek("[0-9]+(\\.?(?:[0-9]))*")) {
+        } else if (peek(DIGIT) || peek(MINUS, DIGIT)) {
             return lexNumber();
-        } else if (peek("[A-Za-z ] | \\[brnt\"'\\]")) {
+        } else if (peek(SINGLE_QUOTE)) {
             return lexCharacter();
-        } else if (peek("[A-Za-z....]+ | \\[brnt\"'\\]")) {
+        } else if (peek(DOUBLE_QUOTE)) {
             return lexString();
-        } else if (peek("=|==|!=|>=|<=|&&|\\|\\||\\(|\\)|;")) {
-            return lexOperator();
         } else {
-            chars.advance();
-            return null;
-            //random edge case idk
+            return lexOperator();
         }
-
-        //throw new UnsupportedOperationException(); //TODO
     }
 
-    public Token lexIdentifier() {
-        int startIndex = chars.index;
-        if (!peek("[A-Za-z]")) {
-            throw new ParseException("Identifer doesn't start with character", chars.index);
+    /**
+     * Scans the next token in one forward pass over {@link TokenDfa}, looking
+     * ahead without consuming until the automaton stops and then advancing past
+     * the longest accepted prefix in one step, which is left as the current
+     * token of the char stream. Offsets count units of the stream, so a
+     * multi-byte character of a {@link ByteCharStream} is validated once here
+     * and not again when advancing.
+     *
+     * If no prefix is a token, or a character is malformed, this returns
+     * {@code null} without consuming anything and the lexer falls back to the
+     * lex methods below for this token, so an error is reported (or recovered
+     * from) by the same {@link #error} calls, with the same message and
+     * index, in both modes.
+     */
+    private Token.Type scanDfa() {
+        TokenDfa dfa = TokenDfa.get();
+        int state = TokenDfa.START;
+        int offset = 0;
+        Token.Type type = null;
+        int accepted = 0;
+
+        while (chars.has(offset)) {
+            char c = chars.get(offset);
+            int next = dfa.next(state, c);
+            if (next < 0) {
+                break;
+            }
+            int width = c < 128 ? 1 : chars.width(offset);
+            if (width < 0) {
+                return null;
+            }
+            state = next;
+            offset += width;
+            if (dfa.accepts(state) != null) {
+                type = dfa.accepts(state);
+                accepted = offset;
+            }
         }
-        StringBuilder literalBuilder = new StringBuilder();
-        literalBuilder.append(chars.get(0));
-        chars.advance();
 
-        while (peek("[A-Za-z0-9]")) {
-            literalBuilder.append(chars.get(0));
-            chars.advance();
+        if (type != null) {
+            chars.advance(accepted);
         }
+        return type;
+    }
 
-        String literal = literalBuilder.toString();
-
-        return new Token(Token.Type.IDENTIFIER, literal, startIndex);
-        //throw new UnsupportedOperationException(); //TODO
+    public Token lexIdentifier() {
+        if (!match(IDENTIFIER_START)) {
+            throw new ParseException("Identifer doesn't start with character", chars.getIndex());
+        }
+        chars.advance(RunScanner.Run.IDENTIFIER);
+        return emit(Token.Type.IDENTIFIER);
     }
 
+    /**
+     * Lexes a number, computing its value in a {@code long} (the unscaled
+     * value, for a decimal) as the digits are scanned so the parser can build
+     * the literal without parsing its text again. The value is accumulated
+     * negatively so {@code Long.MIN_VALUE} fits, and is left unknown on the
+     * token if it overflows.
+     */
     public Token lexNumber() {
-        int startIndex = chars.index;
         boolean decimal = false;
-        StringBuilder literalBuilder = new StringBuilder();
+        long value = 0;
+        int scale = 0;
 
         // Optional sign
-        if (peek("[-]")) {
-            literalBuilder.append(chars.get(0));
-            chars.advance();
-        }
+        boolean negative = match(MINUS);
 
         // Read integer part
-        if (peek("[1-9]")) {
-            literalBuilder.append(chars.get(0));
-            chars.advance();
-            while (peek("[0-9]")) {
-                literalBuilder.append(chars.get(0));
+        if (peek(NONZERO_DIGIT)) {
+            while (peek(DIGIT)) {
+                value = Numbers.accumulate(value, chars.get(0) - '0');
                 chars.advance();
             }
-        } else if (peek("0")) {
-            literalBuilder.append(chars.get(0));
-            chars.advance();
-        } else {
-            throw new ParseException("Invalid number format", startIndex);
+        } else if (!match(ZERO)) {
+            throw new ParseException("Invalid number format", chars.getIndex());
         }
 
-        // Check if there is a decimal point
-        if (peek("\\.")) {
+        // A decimal point only belongs to the number if a digit follows it,
+        // otherwise it is left for the next token (e.g. a method call).
+        if (peek(DOT, DIGIT)) {
             decimal = true;
-            literalBuilder.append(chars.get(0));
             chars.advance();
 
             // Read fractional part
-            if (peek("[0-9]")) {
-                literalBuilder.append(chars.get(0));
+            while (peek(DIGIT)) {
+                value = Numbers.accumulate(value, chars.get(0) - '0');
                 chars.advance();
-                while (peek("[0-9]")) {
-                    literalBuilder.append(chars.get(0));
-                    chars.advance();
-                }
-            } else {
-                throw new ParseException("Invalid decimal format", startIndex);
+                scale++;
             }
         }
 
-        String literal = literalBuilder.toString();
-
         Token.Type type;
         type = Token.Type.INTEGER;
         if(decimal) {
             type = Token.Type.DECIMAL;
         }
 
-        return new Token(type, literal, startIndex);
-        //throw new UnsupportedOperationException(); //TODO
+        Token token = emit(type);
+        // a positive accumulation means overflow, as does negating MIN_VALUE
+        if (value <= 0 && (negative || value != Long.MIN_VALUE)) {
+            token.setNumber(negative ? value : -value, scale);
+        }
+        return token;
     }
 
     public Token lexCharacter() {
-        int startIndex = chars.index;
-        StringBuilder literalBuilder = new StringBuilder();
-
-        if (!match("'")) {
-            throw new ParseException("Expected opening quote for character literal", startIndex);
-        }
-
-        if (peek("\\\\") || peek("[^']")) {
-            if (peek("\\")) { // Handle escape sequences
-                lexEscape();
-            } else {
-                literalBuilder.append(chars.get(0));
-                chars.advance();
-            }
-        } else {
-            throw new ParseException("Invalid character literal content", startIndex);
+        if (!match(SINGLE_QUOTE)) {
+            throw new ParseException("Expected opening quote for character literal", chars.getIndex());
         }
 
-        if (literalBuilder.length() != 1) {
-            throw new ParseException("Character literal must contain exactly one character", startIndex);
+        if (match(BACKSLASH)) { // Handle escape sequences
+            lexEscape();
+        } else if (!match(CHARACTER_BODY)) {
+            error("Invalid character literal content", chars.getIndex());
+            return recoverCharacter();
         }
 
-        if (!match("'")) {
-            throw new ParseException("Expected closing quote for character literal", startIndex);
+        if (!match(SINGLE_QUOTE)) {
+            error("Expected closing quote for character literal", chars.getIndex());
+            return recoverCharacter();
         }
 
-        String literal = literalBuilder.toString();
+        return emit(Token.Type.CHARACTER);
+    }
 
-        return new Token(Token.Type.CHARACTER, "'" + literal + "'", startIndex);
-        //throw new UnsupportedOperationException(); //TODO
+    /**
+     * Skips the rest of a malformed character literal, up to and including a
+     * closing quote if one comes before any whitespace, and emits it as an
+     * error.
+     */
+    private Token recoverCharacter() {
+        while (chars.has(0) && !peek(WHITESPACE) && !peek(SINGLE_QUOTE)) {
+            chars.advance();
+        }
+        match(SINGLE_QUOTE);
+        return emit(Token.Type.CHARACTER);
     }
 
     public Token lexString() {
-        int startIndex = chars.index;
-        StringBuilder literalBuilder = new StringBuilder();
-
-        if (!match("\"")) {
-            throw new ParseException("Expected opening quote for string literal", startIndex);
+        if (!match(DOUBLE_QUOTE)) {
+            throw new ParseException("Expected opening quote for string literal", chars.getIndex());
         }
 
-        while (!peek("\"")) {
+        while (!match(DOUBLE_QUOTE)) {
             if (!chars.has(0)) {
-                throw new ParseException("Unterminated string literal", startIndex);
-            }
-
-            if (match("\\")) {
+                error("Unterminated string literal", chars.getIndex());
+                break;
+            } else if (match(BACKSLASH)) {
                 lexEscape();
-                literalBuilder.append(chars.get(0));
-                chars.advance();
             } else {
-                literalBuilder.append(chars.get(0));
-                chars.advance();
+                chars.advance(RunScanner.Run.STRING_BODY);
             }
         }
 
-        if (!match("\"")) {
-            throw new ParseException("Expected closing quote for string literal", startIndex);
-        }
-
-        return new Token(Token.Type.STRING, "\"" + literalBuilder.toString() + "\"", startIndex);
-        // throw new UnsupportedOperationException(); //TODO
+        return emit(Token.Type.STRING);
     }
 
+    /**
+     * Lexes the character following a backslash, which must be one of the
+     * supported escapes ({@code [bnrt'"\\]}). With diagnostics, an invalid
+     * escape is reported and skipped so the literal can continue.
+     */
     public void lexEscape() {
         if (!chars.has(0)) {
-            throw new ParseException("Unterminated escape sequence", chars.index);
-        }
-        //idk what i'm actually supposed to do here
-        char nextChar = chars.get(0);
-        switch (nextChar) {
-            case 'n':
-                chars.advance();  // '\n' -> newline
-                break;
-            case 't':
-                chars.advance();  // '\t' -> tab
-                break;
-            case 'r':
-                chars.advance();  // '\r' -> carriage return
-                break;
-            case '\\':
-                chars.advance();  // '\\' -> backslash
-                break;
-            case '\"':
-                chars.advance();  // '\"' -> double quote
-                break;
-            case '\'':
-                chars.advance();  // '\'' -> single quote (for characters)
-                break;
-            default:
-                throw new ParseException("Invalid escape sequence: \\" + nextChar, chars.index);
+            error("Unterminated escape sequence", chars.getIndex());
+        } else if (!match(ESCAPE)) {
+            error("Invalid escape sequence: \\" + chars.get(0), chars.getIndex());
+            chars.advance();
         }
-        //throw new UnsupportedOperationException(); //TODO
     }
 
     public Token lexOperator() {
-        StringBuilder literalBuilder = new StringBuilder();
-        int startIndex = chars.index;
+        if (!chars.has(0) || peek(WHITESPACE)) {
+            throw new ParseException("Invalid operator", chars.getIndex());
+        }
 
-        if (match("==") || match("!=") || match(">=") || match("<=") || match("&&") || match("||")) {
-            literalBuilder.append(chars.get(0));
-            literalBuilder.append(chars.get(1));
-            return new Token(Token.Type.OPERATOR, literalBuilder.toString(), startIndex);
+        if (peek(COMPARISON, EQUALS) || peek(AMPERSAND, AMPERSAND) || peek(PIPE, PIPE)) {
+            chars.advance();
         }
+        chars.advance();
+
+        return emit(Token.Type.OPERATOR);
+    }
 
-        if (match("=") || match(">") || match("<") || match("+") || match("-") || match("*") || match("/") || match("!") || match("(") || match(")") || match(";")) {
-            literalBuilder.append(chars.get(0));
-            return new Token(Token.Type.OPERATOR, literalBuilder.toString(), startIndex);
+    /**
+     * Advances past the whitespace at the current index, recording the
+     * newlines in it if there is a line map.
+     */
+    private void skipWhitespace() {
+        int start = chars.getIndex();
+        chars.advance(RunScanner.Run.WHITESPACE);
+        if (lines != null) {
+            lines(start);
         }
+    }
 
-        throw new ParseException("Invalid operator", chars.index);
-        //throw new UnsupportedOperationException(); //TODO
+    private Token record(Token token) {
+        record(token.getType(), token.getIndex());
+        return token;
+    }
+
+    /**
+     * Records the newlines in the token just lexed from the start index if it
+     * may contain any, which only literals and the errors recovered from them
+     * can. The token is still buffered, since no more input has been read.
+     */
+    private void record(Token.Type type, int start) {
+        if (lines != null && (type == Token.Type.STRING || type == Token.Type.CHARACTER || type == Token.Type.ERROR)) {
+            lines(start);
+        }
+    }
+
+    /**
+     * Records the newlines between the start index and the current index.
+     */
+    private void lines(int start) {
+        int end = chars.getIndex();
+        for (int i = start - end; i < 0; i++) {
+            if (chars.get(i) == '\n') {
+                lines.add(end + i + 1);
+            }
+        }
+    }
+
+    /**
+     * Emits the current token, as an {@link Token.Type#ERROR} if any error was
+     * reported while lexing it.
+     */
+    private Token emit(Token.Type type) {
+        if (diagnostics != null && diagnostics.size() > errors) {
+            return chars.emit(Token.Type.ERROR);
+        }
+        return chars.emit(type);
+    }
+
+    /**
+     * Throws the error, or reports it if there are diagnostics. Only the first
+     * error at an index is reported for a token, since one problem (such as
+     * the input ending inside an escape) can fail several checks in a row.
+     */
+    private void error(String message, int index) {
+        if (diagnostics == null) {
+            throw new ParseException(message, index);
+        } else if (diagnostics.size() == errors || diagnostics.getIndex(diagnostics.size() - 1) != index) {
+            diagnostics.report(message, index);
+        }
     }
 
     /**
      * Returns true if the next sequence of characters match the given patterns,
      * which should be a regex. For example, {@code peek("a", "b", "c")} would
      * return true if the next characters are {@code 'a', 'b', 'c'}.
+     *
+     * Patterns are compiled into {@link CharClass}es once and cached, but the
+     * lexer itself uses the precompiled overloads below.
      */
     public boolean peek(String... patterns) {
         for(int i = 0; i < patterns.length; i++) {
-            if(!chars.has(i) || !String.valueOf(chars.get(i)).matches(patterns[i])){
+            if(!chars.has(i) || !CharClass.compile(patterns[i]).matches(chars.get(i))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the next sequence of characters are members of the given
+     * classes, in the same way as {@link #peek(String...)}.
+     */
+    public boolean peek(CharClass... classes) {
+        for(int i = 0; i < classes.length; i++) {
+            if(!chars.has(i) || !classes[i].matches(chars.get(i))){
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Single character form of {@link #peek(CharClass...)}, which avoids
+     * allocating the varargs array on the hot path.
+     */
+    public boolean peek(CharClass first) {
+        return chars.has(0) && first.matches(chars.get(0));
+    }
+
+    /**
+     * Two character form of {@link #peek(CharClass...)}.
+     */
+    public boolean peek(CharClass first, CharClass second) {
+        return chars.has(1) && first.matches(chars.get(0)) && second.matches(chars.get(1));
+    }
+
     /**
      * Returns true in the same way as {@link #peek(String...)}, but also
      * advances the character stream past all matched characters if peek returns
@@ -295,44 +826,165 @@ public final class Lexer {
     }
 
     /**
-     * A helper class maintaining the input string, current index of the char
-     * stream, and the current length of the token being matched.
+     * Returns true in the same way as {@link #peek(CharClass...)}, but also
+     * advances the character stream past all matched characters.
+     */
+    public boolean match(CharClass... classes) {
+        boolean peek = peek(classes);
+        if(peek){
+            for(int i = 0; i < classes.length; i++){
+                chars.advance();
+            }
+        }
+        return peek;
+    }
+
+    /**
+     * Single character form of {@link #match(CharClass...)}.
+     */
+    public boolean match(CharClass first) {
+        boolean peek = peek(first);
+        if(peek){
+            chars.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * The tokens returned by {@link #relex}, held as segments which are each
+     * a range of another list of tokens moved by a delta: the previous tokens
+     * before the edit, the new ones and the previous ones after it. Building
+     * the list copies the segments of the previous tokens, not the tokens,
+     * and a moved token is only created when it is read, so an edit costs
+     * time in the number of segments rather than the size of the document.
      *
-     * You should rely on peek/match for state management in nearly all cases.
-     * The only field you need to access is {@link #index} for any {@link
-     * ParseException} which is thrown.
+     * Repeated edits in one place leave a trail of small segments, so small
+     * neighbours are merged into one as they are added, and in the rare case
+     * that the segments still outnumber {@link #MAX_SEGMENTS} the list is
+     * flattened, which spreads that linear copy over as many edits.
      */
-    public static final class CharStream {
+    private static final class EditedTokens extends AbstractList<Token> {
+
+        private static final int SMALL = 32;
+        private static final int MAX_SEGMENTS = 1024;
+
+        private Segment[] segments = new Segment[8];
+        // starts[i] is the index of the first token of segment i, and
+        // starts[count] is the size
+        private int[] starts = new int[9];
+        private int count = 0;
+
+        private static List<Token> of(List<Token> previous, int low, List<Token> lexed, int next, int delta) {
+            EditedTokens tokens = new EditedTokens();
+            tokens.append(previous, 0, low, 0);
+            tokens.append(lexed, 0, lexed.size(), 0);
+            tokens.append(previous, next, previous.size(), delta);
+            if (tokens.count > MAX_SEGMENTS) {
+                tokens.flatten();
+            }
+            return tokens;
+        }
 
-        private final String input;
-        private int index = 0;
-        private int length = 0;
+        @Override
+        public Token get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size());
+            }
+            int segment = segment(index);
+            return segments[segment].get(index - starts[segment]);
+        }
 
-        public CharStream(String input) {
-            this.input = input;
+        @Override
+        public int size() {
+            return starts[count];
         }
 
-        public boolean has(int offset) {
-            return index + offset < input.length();
+        /**
+         * Appends the tokens {@code [from, to)} of the list moved by delta,
+         * taking the segments of another edited list instead of its tokens.
+         */
+        private void append(List<Token> tokens, int from, int to, int delta) {
+            if (!(tokens instanceof EditedTokens)) {
+                add(tokens, from, to, delta);
+                return;
+            }
+            EditedTokens other = (EditedTokens) tokens;
+            for (int i = from < to ? other.segment(from) : other.count; i < other.count && other.starts[i] < to; i++) {
+                Segment segment = other.segments[i];
+                int start = Math.max(from, other.starts[i]) - other.starts[i];
+                int end = Math.min(to, other.starts[i + 1]) - other.starts[i];
+                add(segment.tokens, segment.from + start, segment.from + end, segment.delta + delta);
+            }
         }
 
-        public char get(int offset) {
-            return input.charAt(index + offset);
+        private void add(List<Token> tokens, int from, int to, int delta) {
+            int length = to - from;
+            if (length <= 0) {
+                return;
+            }
+            if (count > 0 && length < SMALL && starts[count] - starts[count - 1] < SMALL) {
+                Segment last = segments[count - 1];
+                List<Token> merged = new ArrayList<>(starts[count] - starts[count - 1] + length);
+                for (int i = 0; i < starts[count] - starts[count - 1]; i++) {
+                    merged.add(last.get(i));
+                }
+                Segment segment = new Segment(tokens, from, delta);
+                for (int i = 0; i < length; i++) {
+                    merged.add(segment.get(i));
+                }
+                segments[count - 1] = new Segment(merged, 0, 0);
+                starts[count] += length;
+                return;
+            }
+            if (count == segments.length) {
+                segments = Arrays.copyOf(segments, segments.length + (segments.length >> 1));
+                starts = Arrays.copyOf(starts, segments.length + 1);
+            }
+            segments[count] = new Segment(tokens, from, delta);
+            starts[count + 1] = starts[count] + length;
+            count++;
         }
 
-        public void advance() {
-            index++;
-            length++;
+        private void flatten() {
+            List<Token> tokens = new ArrayList<>(this);
+            segments[0] = new Segment(tokens, 0, 0);
+            starts[1] = tokens.size();
+            count = 1;
         }
 
-        public void skip() {
-            length = 0;
+        /**
+         * Returns the segment containing the token at the given index.
+         */
+        private int segment(int index) {
+            int low = 0, high = count - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (starts[middle] <= index) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
         }
 
-        public Token emit(Token.Type type) {
-            int start = index - length;
-            skip();
-            return new Token(type, input.substring(start, index), start);
+        private static final class Segment {
+
+            private final List<Token> tokens;
+            private final int from;
+            private final int delta;
+
+            private Segment(List<Token> tokens, int from, int delta) {
+                this.tokens = tokens;
+                this.from = from;
+                this.delta = delta;
+            }
+
+            private Token get(int index) {
+                Token token = tokens.get(from + index);
+                return delta == 0 ? token : token.shift(delta);
+            }
+
         }
 
     }
@@ -0,0 +1,92 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Maps indices of the input to lines and columns, built from the offsets of
+ * newlines a {@link Lexer} records with {@link Lexer#withLines(LineMap)} as it
+ * skips whitespace and lexes literals. This avoids another pass over the input
+ * to convert the index of a {@link Token} or {@link ParseException} whenever a
+ * position is shown.
+ *
+ * Lines and columns start at 1, and a line ends at a {@code '\n'} (so a
+ * {@code "\r\n"} ends one line, with the {@code '\r'} as its last column).
+ * Columns count the units indices do, which are bytes for input lexed by a
+ * {@link ByteCharStream}. Lookups are a binary search over the line starts.
+ */
+public final class LineMap {
+
+    private int[] starts = new int[64];
+    private int size = 1;
+
+    /**
+     * Records that a line starts at the given index, just past a newline.
+     * Lines must be added in order.
+     */
+    void add(int start) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length + (starts.length >> 1));
+        }
+        starts[size++] = start;
+    }
+
+    /**
+     * Adds the lines of another map starting in {@code (from, to]}, which are
+     * those ended by a newline in {@code [from, to)}.
+     */
+    void addAll(LineMap other, int from, int to) {
+        int i = other.find(from) + 1;
+        while (i < other.size && other.starts[i] <= to) {
+            add(other.starts[i++]);
+        }
+    }
+
+    /**
+     * Returns the number of lines, which is one more than the number of
+     * newlines recorded.
+     */
+    public int getLineCount() {
+        return size;
+    }
+
+    public int getLine(int index) {
+        return find(index) + 1;
+    }
+
+    public int getColumn(int index) {
+        return index - starts[find(index)] + 1;
+    }
+
+    /**
+     * Returns the index of the first unit of the given line.
+     */
+    public int getLineStart(int line) {
+        return starts[line - 1];
+    }
+
+    /**
+     * Returns the position of the index as {@code line:column}.
+     */
+    public String format(int index) {
+        int line = find(index);
+        return (line + 1) + ":" + (index - starts[line] + 1);
+    }
+
+    /**
+     * Returns the zero-based line containing the index, which is the last
+     * line starting at or before it.
+     */
+    private int find(int index) {
+        int low = 0, high = size - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,96 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Builds the values of integer and decimal literals from a {@code long}
+ * instead of parsing their text into a {@link BigInteger} or {@link
+ * BigDecimal}.
+ *
+ * Nearly every literal fits in a {@code long} (as its unscaled value, for a
+ * decimal), which the lexer computes while scanning its digits. Integers in
+ * {@code [CACHE_LOW, CACHE_HIGH]} then come from a shared cache without
+ * allocating at all, other integers cost a single {@code BigInteger} and
+ * decimals a single {@code BigDecimal}. Only literals which overflow a {@code
+ * long} fall back to parsing their text.
+ */
+public final class Numbers {
+
+    /**
+     * The scale of a number whose value is not known, because it overflowed a
+     * {@code long} or was never computed.
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final BigInteger[] INTEGERS = new BigInteger[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < INTEGERS.length; i++) {
+            INTEGERS[i] = BigInteger.valueOf(i + CACHE_LOW);
+        }
+    }
+
+    private Numbers() {}
+
+    public static BigInteger integer(long value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return INTEGERS[(int) value - CACHE_LOW];
+        }
+        return BigInteger.valueOf(value);
+    }
+
+    public static BigDecimal decimal(long unscaled, int scale) {
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    /**
+     * Returns the value of an integer or decimal literal, computing it in a
+     * {@code long} when it fits and parsing the text otherwise.
+     */
+    public static Object parse(Token.Type type, String literal) {
+        boolean negative = literal.charAt(0) == '-';
+        long value = 0; // accumulated negatively, which also fits Long.MIN_VALUE
+        int scale = 0;
+        boolean fraction = false;
+        for (int i = negative ? 1 : 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+            value = accumulate(value, c - '0');
+            if (value > 0) {
+                return type == Token.Type.INTEGER ? new BigInteger(literal) : new BigDecimal(literal);
+            }
+            scale += fraction ? 1 : 0;
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            return type == Token.Type.INTEGER ? new BigInteger(literal) : new BigDecimal(literal);
+        }
+        long result = negative ? value : -value;
+        return type == Token.Type.INTEGER ? integer(result) : decimal(result, scale);
+    }
+
+    /**
+     * Appends a digit to a negatively accumulated value, returning a positive
+     * number (which a negative accumulation never is) on overflow. An
+     * overflowed value stays positive for every later digit, so a caller may
+     * keep accumulating and check once at the end.
+     */
+    static long accumulate(long value, int digit) {
+        if (value > 0) {
+            return value;
+        } else if (value < Long.MIN_VALUE / 10) {
+            return 1;
+        }
+        value *= 10;
+        if (value < Long.MIN_VALUE + digit) {
+            return 1;
+        }
+        return value - digit;
+    }
+
+}
@@ -1,13 +1,16 @@
 package plc.project;
 
-import javax.swing.text.html.Option;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The parser takes the sequence of tokens emitted by the lexer and turns that
@@ -15,8 +18,10 @@ import java.util.Collections;
  * Tree (AST).
  *
  * The parser has a similar architecture to the lexer, just with {@link Token}s
- * instead of characters. As before, {@link #peek(Object...)} and {@link
- * #match(Object...)} are helpers to make the implementation easier.
+ * instead of characters. As before, {@code peek} and {@code match} are
+ * helpers to make the implementation easier, here matching a single token by
+ * its {@link TokenKind} or {@link Token.Type} (or a set of kinds) so that
+ * looking ahead never allocates.
  *
  * This type of parser is called <em>recursive descent</em>. Each rule in our
  * grammar will have it's own function, and reference to other rules correspond
@@ -24,57 +29,450 @@ import java.util.Collections;
  */
 public final class Parser {
 
+    /**
+     * How expressions are parsed. {@link #RECURSIVE} uses the Java stack, one
+     * frame per precedence level and group, as the grammar reads, while {@link
+     * #ITERATIVE} keeps its own stacks on the heap, so the depth it can parse
+     * is limited only by memory. Both produce the same trees and errors.
+     */
+    public enum Mode {
+        RECURSIVE,
+        ITERATIVE
+    }
+
+    private static final int PIPELINE_CAPACITY = 1 << 14;
+
+    // precedence levels of binary operators, from loosest to tightest
+    private static final int LOGICAL = 1;
+    private static final int EQUALITY = 2;
+    private static final int ADDITIVE = 3;
+    private static final int MULTIPLICATIVE = 4;
+
+    /**
+     * The precedence of each binary operator, indexed by {@link TokenKind},
+     * where {@code 0} is not a binary operator, and whether it is right
+     * associative. A new operator only needs an entry here.
+     */
+    private static final byte[] PRECEDENCE = new byte[TokenKind.COUNT];
+    private static final boolean[] RIGHT_ASSOCIATIVE = new boolean[TokenKind.COUNT];
+
+    static {
+        binary(LOGICAL, TokenKind.AND, TokenKind.OR);
+        binary(EQUALITY, TokenKind.LESS, TokenKind.LESS_EQUAL, TokenKind.GREATER, TokenKind.GREATER_EQUAL,
+                TokenKind.EQUAL_EQUAL, TokenKind.NOT_EQUAL);
+        binary(ADDITIVE, TokenKind.PLUS, TokenKind.MINUS);
+        binary(MULTIPLICATIVE, TokenKind.STAR, TokenKind.SLASH);
+    }
+
+    /**
+     * Sets of {@link TokenKind}s as bits of a {@code long}, which every kind
+     * fits in, tested by {@link #peek(long)} with a shift and a mask instead of
+     * a comparison per kind. {@link TokenKind#NONE} is bit 63, never set.
+     */
+    private static final long BLOCK_END = kinds(TokenKind.END, TokenKind.DEF);
+    private static final long BLOCK_END_OR_ELSE = BLOCK_END | kinds(TokenKind.ELSE);
+    private static final long STATEMENT_START = kinds(TokenKind.LET, TokenKind.DEF, TokenKind.IF,
+            TokenKind.FOR, TokenKind.WHILE, TokenKind.RETURN, TokenKind.END, TokenKind.ELSE);
+    private static final long LITERAL_KEYWORDS = kinds(TokenKind.NIL, TokenKind.TRUE, TokenKind.FALSE);
+
+    private static final EnumSet<Token.Type> LITERALS = EnumSet.of(Token.Type.INTEGER, Token.Type.DECIMAL,
+            Token.Type.CHARACTER, Token.Type.STRING);
+
     private final TokenStream tokens;
+    private final Mode mode;
+    private Diagnostics diagnostics;
+    private DeclarationMap declarations;
+    private boolean lazyBodies = false;
+    private boolean speculative = false;
+    private ExpressionStack stack;
 
     public Parser(List<Token> tokens) {
-        this.tokens = new TokenStream(tokens);
+        this(tokens, Mode.RECURSIVE);
+    }
+
+    public Parser(List<Token> tokens, Mode mode) {
+        this.tokens = new ListTokenStream(tokens);
+        this.mode = mode;
+    }
+
+    /**
+     * Creates a parser reading directly from a {@link TokenBuffer}, such as one
+     * produced by {@link Lexer#lexBuffer()}.
+     */
+    public Parser(TokenBuffer tokens) {
+        this(tokens, Mode.RECURSIVE);
+    }
+
+    public Parser(TokenBuffer tokens, Mode mode) {
+        this.tokens = new BufferTokenStream(tokens);
+        this.mode = mode;
+    }
+
+    /**
+     * Creates a parser reading tokens from the ring as they are produced on
+     * another thread, such as by {@link Lexer#lexAsync}. Tokens are released
+     * to the producer in batches once parsed, so the ring must hold more than
+     * a batch plus the parser's lookahead and lookbehind.
+     */
+    public Parser(TokenRing tokens) {
+        this(tokens, Mode.RECURSIVE);
+    }
+
+    public Parser(TokenRing tokens, Mode mode) {
+        if (tokens.getCapacity() < RingTokenStream.MIN_CAPACITY) {
+            throw new IllegalArgumentException("Token ring capacity must be at least " + RingTokenStream.MIN_CAPACITY + ".");
+        }
+        this.tokens = new RingTokenStream(tokens);
+        this.mode = mode;
+    }
+
+    private Parser(TokenStream tokens, Mode mode, Diagnostics diagnostics) {
+        this.tokens = tokens;
+        this.mode = mode;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Parses the {@code source} rule while the lexer runs on the executor, so
+     * lexing and parsing of a large input overlap. If parsing fails, the
+     * lexer is cancelled rather than waited for. An error from the lexer is
+     * thrown once the parser reaches it, so an earlier parse error takes
+     * precedence over it, unlike lexing everything first.
+     */
+    public static Ast.Source parseSource(Lexer lexer, Executor executor) throws ParseException {
+        TokenRing ring = lexer.lexAsync(executor, PIPELINE_CAPACITY);
+        try {
+            return new Parser(ring).parseSource();
+        } finally {
+            ring.cancel();
+        }
+    }
+
+    /**
+     * Reports errors to the given sink instead of throwing them, or throws
+     * them again if it is {@code null}, as with {@link
+     * Lexer#withDiagnostics(Diagnostics)}. The parser then recovers from each
+     * error and continues, so one pass reports every error in the input:
+     *
+     * <ul>
+     *     <li>A statement with an error is skipped to just past the next
+     *     {@code ;} or to the next keyword which starts a statement or ends a
+     *     block, and replaced by an expression statement of an {@link
+     *     Ast.Expression.Error}.</li>
+     *     <li>A parameter list with an error is skipped to its closing
+     *     parenthesis, and the method is still parsed.</li>
+     *     <li>Any other error in a field or method skips the declaration to
+     *     the next {@code LET} or {@code DEF}, and replaces it by a field or
+     *     method named {@code ""} holding the error, as its value or its only
+     *     statement. It is a field if no method was parsed before it and it
+     *     did not start with {@code DEF}.</li>
+     * </ul>
+     *
+     * So every declaration and statement the input starts has a node in the
+     * tree, in order, and a tool can still walk the parts without errors. An
+     * error at an {@link Token.Type#ERROR} token is not reported again, since
+     * the lexer reported it already, but is still replaced.
+     */
+    public Parser withDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        return this;
+    }
+
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Records where each declaration starts into the given map, or nothing if
+     * it is {@code null}, which lets a later {@link #reparseSource} of the
+     * edited tokens reuse the declarations the edit did not change.
+     */
+    public Parser withDeclarations(DeclarationMap declarations) {
+        this.declarations = declarations;
+        return this;
+    }
+
+    public DeclarationMap getDeclarations() {
+        return declarations;
+    }
+
+    /**
+     * Pre-parses method bodies instead of parsing them: {@link #parseMethod()}
+     * only finds the {@code END} of the body, by counting the {@code DO}s and
+     * {@code END}s which open and close every block, and returns a method whose
+     * statements are parsed from that range of tokens the first time they are
+     * read. Tools which only need fields and method signatures then skip the
+     * expressions and statements of every body, and a body which is read is
+     * parsed exactly as it would have been.
+     *
+     * Errors in a body are thrown from (or reported to the diagnostics when)
+     * reading its statements. A body which runs into the next {@code DEF} or
+     * the end of the input is parsed immediately, so its error is raised as
+     * before, but in a body whose blocks are malformed (such as an {@code IF}
+     * missing its {@code DO}) the {@code END} found by counting may not be the
+     * one parsing would match, so the errors after it can differ. The tokens
+     * must be kept for the bodies, so this is not supported when reading from
+     * a {@link TokenRing}.
+     */
+    public Parser withLazyBodies(boolean lazyBodies) {
+        if (lazyBodies && tokens instanceof RingTokenStream) {
+            throw new IllegalStateException("Lazy bodies require all tokens, not a ring.");
+        }
+        this.lazyBodies = lazyBodies;
+        return this;
+    }
+
+    public boolean isLazyBodies() {
+        return lazyBodies;
     }
 
     /**
      * Parses the {@code source} rule.
      */
     public Ast.Source parseSource() throws ParseException {
+        List<Ast.Field> fields = new ArrayList<>();
+        List<Ast.Method> methods = new ArrayList<>();
+        parseDeclarations(fields, methods, Integer.MAX_VALUE);
+        return new Ast.Source(fields, methods);
+    }
+
+    /**
+     * Parses the {@code source} rule on the pool, splitting the tokens into
+     * the given number of chunks of about the same size which each start at
+     * a declaration, as found by {@link #declarationBounds(int)}. Each chunk
+     * is parsed by its own parser over a view of its tokens, and the results
+     * are joined in order into the same tree as {@link #parseSource()}.
+     *
+     * Chunks are parsed speculatively, giving up at their first error. The
+     * merge then parses sequentially from the start of a chunk which failed
+     * (or one a previous declaration ran into while recovering), so errors
+     * are thrown or reported exactly as {@link #parseSource()} would.
+     */
+    public Ast.Source parseParallel(ForkJoinPool pool, int chunks) throws ParseException {
+        if (tokens instanceof RingTokenStream) {
+            throw new UnsupportedOperationException("Ring tokens cannot be parsed in parallel.");
+        }
+        int[] bounds = declarationBounds(chunks);
+
+        List<ForkJoinTask<Ast.Source>> tasks = new ArrayList<>();
+        DeclarationMap[] chunkDeclarations = new DeclarationMap[chunks];
+        for (int i = 0; i < chunks; i++) {
+            chunkDeclarations[i] = declarations != null ? new DeclarationMap() : null;
+            Parser parser = new Parser(tokens.view(bounds[i], bounds[i + 1]), mode, diagnostics)
+                    .withDeclarations(chunkDeclarations[i]);
+            parser.lazyBodies = lazyBodies;
+            parser.speculative = true;
+            tasks.add(pool.submit(parser::parseSpeculative));
+        }
+
+        List<Ast.Field> fields = new ArrayList<>();
+        List<Ast.Method> methods = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            Ast.Source chunk = tasks.get(i).join();
+            if (chunk != null && tokens.index == bounds[i]) {
+                fields.addAll(chunk.getFields());
+                methods.addAll(chunk.getMethods());
+                if (declarations != null) {
+                    declarations.addAll(chunkDeclarations[i]);
+                }
+                tokens.index = bounds[i + 1];
+            } else {
+                parseDeclarations(fields, methods, bounds[i + 1]);
+            }
+        }
+        return new Ast.Source(fields, methods);
+    }
+
+    /**
+     * Returns the bounds of the chunks for {@link #parseParallel}, splitting
+     * the tokens into chunks of about the same number of tokens. A chunk only
+     * starts at a {@code DEF}, since a method cannot contain one, or at a
+     * {@code LET} before the first {@code DEF}, since a field cannot contain
+     * one and any later {@code LET} may be a statement. Chunks past the last
+     * declaration are empty.
+     */
+    private int[] declarationBounds(int chunks) {
+        int length = 0;
+        while (tokens.has(length)) {
+            length++;
+        }
+        int[] bounds = new int[chunks + 1];
+        int chunk = 1;
+        boolean methods = false;
+        // a DEF at the first token still rules out every later LET, though
+        // only the first chunk starts there
+        for (int i = 0; i < length && chunk < chunks; i++) {
+            int kind = tokens.getKind(i);
+            methods |= kind == TokenKind.DEF;
+            if (i > 0 && (kind == TokenKind.DEF || kind == TokenKind.LET && !methods) && i >= (long) length * chunk / chunks) {
+                bounds[chunk++] = tokens.index + i;
+            }
+        }
+        bounds[0] = tokens.index;
+        while (chunk <= chunks) {
+            bounds[chunk++] = tokens.index + length;
+        }
+        return bounds;
+    }
+
+    /**
+     * Parses the tokens as the {@code source} rule, returning {@code null} if
+     * there is an error, which the sequential parse will find instead.
+     */
+    private Ast.Source parseSpeculative() {
         try {
-            List<Ast.Field> fields = new ArrayList<>();
-            List<Ast.Method> methods = new ArrayList<>();
+            return parseSource();
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the {@code source} rule after an edit, reusing the declarations
+     * of the previous tree which the edit did not change. The parser reads the
+     * tokens after the edit, such as from {@link Lexer#relex}, and its {@link
+     * #withDeclarations declarations} must be those recorded for the previous
+     * tree, which are updated for the new one. The edit replaced {@code
+     * removed} characters at {@code offset} with {@code inserted} characters,
+     * and {@code previousTokens} are the tokens before it.
+     *
+     * As in {@link Lexer#relex}, the tokens before the first one the edit
+     * could change and those after the point where the old and new tokens
+     * line up again are the same, only shifted. Parsing restarts at the
+     * declaration containing the first changed token (or the one before, in
+     * case it recovered into it) and stops at the first declaration after the
+     * changed tokens which starts where a previous one did, since parsing from
+     * there sees the same tokens as before. The declarations before and after
+     * are shared with the previous tree, so the work depends on the size of
+     * the edit and the declarations it touches rather than the file, apart
+     * from copying the lists of declarations.
+     *
+     * The result equals {@link #parseSource()} of the new tokens. Errors are
+     * thrown or reported as that would, except that errors in the shared
+     * declarations are not reported again. If an error is thrown, the
+     * declarations still describe the previous tree.
+     */
+    public Ast.Source reparseSource(Ast.Source previous, List<Token> previousTokens, int offset, int removed, int inserted) throws ParseException {
+        if (declarations == null) {
+            throw new IllegalStateException("Reparsing requires the declarations of the previous tree.");
+        } else if (tokens instanceof RingTokenStream) {
+            throw new UnsupportedOperationException("Ring tokens cannot be reparsed.");
+        }
+        int fieldCount = previous.getFields().size();
 
+        // the tokens before first are unchanged, and if the tokens line up
+        // again, those from oldEnd are the new ones from oldEnd + shift
+        tokens.index = 0;
+        int first = Lexer.firstAffected(previousTokens, offset);
+        int delta = inserted - removed;
+        int oldEnd = first;
+        int shift = 0;
+        boolean aligned = false;
+        for (int i = first; tokens.has(i) && !aligned; i++) {
+            if (tokens.getIndex(i) < offset + inserted) {
+                continue;
+            }
+            while (oldEnd < previousTokens.size() && previousTokens.get(oldEnd).getIndex() + delta < tokens.getIndex(i)) {
+                oldEnd++;
+            }
+            if (oldEnd < previousTokens.size() && previousTokens.get(oldEnd).getIndex() + delta == tokens.getIndex(i)) {
+                shift = i - oldEnd;
+                aligned = true;
+            }
+        }
+
+        // a declaration starting at the first changed token may change how
+        // the one before recovered from an error, so that is parsed again too
+        DeclarationMap old = declarations;
+        int declaration = Math.max(old.getDeclaration(first - 1), 0);
+        int reused = old.getDeclarationCount();
+        List<Ast.Field> fields = new ArrayList<>(previous.getFields().subList(0, Math.min(declaration, fieldCount)));
+        List<Ast.Method> methods = new ArrayList<>(previous.getMethods().subList(0, Math.max(declaration - fieldCount, 0)));
+        tokens.index = declaration > 0 ? old.getStart(declaration) : 0;
+        declarations = new DeclarationMap();
+        try {
             while (tokens.has(0)) {
-                if (match("LET")) {
+                int start = aligned && tokens.index - shift >= oldEnd ? old.find(tokens.index - shift) : -1;
+                // a field can only be reused if no method precedes it
+                if (start >= 0 && (start >= fieldCount || methods.isEmpty())) {
+                    reused = start;
+                    break;
+                }
+                parseDeclarations(fields, methods, tokens.index + 1);
+            }
+            old.splice(declaration, reused, declarations, shift);
+        } finally {
+            declarations = old;
+        }
+        fields.addAll(previous.getFields().subList(Math.min(reused, fieldCount), fieldCount));
+        methods.addAll(previous.getMethods().subList(Math.max(reused - fieldCount, 0), previous.getMethods().size()));
+        return new Ast.Source(fields, methods);
+    }
+
+    /**
+     * Parses declarations into the lists while they start before the limit,
+     * recovering from errors as described in {@link #withDiagnostics}.
+     */
+    private void parseDeclarations(List<Ast.Field> fields, List<Ast.Method> methods, int limit) throws ParseException {
+        while (tokens.has(0) && tokens.index < limit) {
+            int start = tokens.getKind(0);
+            int index = tokens.index;
+            try {
+                if (match(TokenKind.LET)) {
+                    if (!methods.isEmpty()) {
+                        throw new ParseException("Fields must be declared before methods", tokens.getIndex(-1));
+                    }
                     fields.add(parseField());
-                } else if (match("DEF")) {
+                } else if (match(TokenKind.DEF)) {
                     methods.add(parseMethod());
+                } else {
+                    throw new ParseException("Expected LET or DEF", tokens.getIndex(0));
+                }
+                if (declarations != null) {
+                    declarations.add(index);
+                }
+            } catch (ParseException e) {
+                recover(e);
+                // fields cannot follow a method, so after one only a DEF is
+                // a place to continue from
+                boolean field = methods.isEmpty() && start != TokenKind.DEF;
+                while (tokens.has(0) && !(field && peek(TokenKind.LET)) && !peek(TokenKind.DEF)) {
+                    tokens.advance();
+                }
+                Ast.Expression.Error error = new Ast.Expression.Error(e.getMessage());
+                if (field) {
+                    fields.add(new Ast.Field("", false, Optional.of(error)));
+                } else {
+                    methods.add(new Ast.Method("", Collections.emptyList(),
+                            Collections.singletonList(new Ast.Statement.Expression(error))));
+                }
+                if (declarations != null) {
+                    declarations.add(index);
                 }
             }
-            return new Ast.Source(fields, methods);
-        }
-        catch (ParseException e) {
-            throw new ParseException(e.getMessage(), e.getIndex());
         }
-        //throw new UnsupportedOperationException(); //TODO
     }
 
     /**
      * Parses the {@code field} rule. This method should only be called if the
      * next tokens start a field, aka {@code LET}.
+     *
+     * A field may name its type, as in {@code LET x: Integer = 1;}. The type
+     * must be an identifier but is not kept, since {@link Ast.Field} has no
+     * slot for it yet.
      */
     public Ast.Field parseField() throws ParseException {
-        try {
-            String val = tokens.get(-1).getLiteral();
-            Optional<String> type = Optional.empty();
-            if (match(":")) {
-                if (match(Token.Type.IDENTIFIER)) {
-                    type = Optional.of(tokens.get(-1).getLiteral());
-                }
-            }
-            match("=");
-            Ast.Expression value = parseExpression();
-            match(";");
-
-            return new Ast.Field(val, type.isPresent(), Optional.of(value));
-        } catch (ParseException e) {
-            throw new ParseException(e.getMessage(), e.getIndex());
+        boolean constant = match(TokenKind.CONST);
+        String name = require(Token.Type.IDENTIFIER, "Expected identifier");
+        if (match(TokenKind.COLON)) {
+            require(Token.Type.IDENTIFIER, "Expected type");
         }
-        //throw new UnsupportedOperationException(); //TODO
+        Optional<Ast.Expression> value = Optional.empty();
+        if (match(TokenKind.EQUALS)) {
+            value = Optional.of(parseExpression());
+        }
+        require(TokenKind.SEMICOLON, "Expected semicolon");
+        return new Ast.Field(name, constant, value);
     }
 
     /**
@@ -82,7 +480,55 @@ public final class Parser {
      * next tokens start a method, aka {@code DEF}.
      */
     public Ast.Method parseMethod() throws ParseException {
-        throw new UnsupportedOperationException(); //TODO
+        String name = require(Token.Type.IDENTIFIER, "Expected identifier");
+        require(TokenKind.LEFT_PAREN, "Expected opening parenthesis");
+        List<String> parameters = new ArrayList<>();
+        try {
+            if (!match(TokenKind.RIGHT_PAREN)) {
+                do {
+                    parameters.add(require(Token.Type.IDENTIFIER, "Expected identifier"));
+                } while (match(TokenKind.COMMA));
+                require(TokenKind.RIGHT_PAREN, "Expected closing parenthesis");
+            }
+        } catch (ParseException e) {
+            recover(e);
+            while (tokens.has(0) && !match(TokenKind.RIGHT_PAREN)) {
+                tokens.advance();
+            }
+        }
+        require(TokenKind.DO, "Expected DO");
+        if (lazyBodies) {
+            int start = tokens.index;
+            if (skipBody()) {
+                TokenStream body = tokens.view(start, tokens.index);
+                return new Ast.Method(name, parameters, new LazyStatements(body, mode, diagnostics));
+            }
+            tokens.index = start;
+        }
+        List<Ast.Statement> statements = parseBlock(false);
+        require(TokenKind.END, "Expected END");
+        return new Ast.Method(name, parameters, statements);
+    }
+
+    /**
+     * Advances just past the {@code END} which closes the body started by the
+     * last {@code DO}, returning {@code false} if the next {@code DEF} or the
+     * end of the input comes first.
+     */
+    private boolean skipBody() {
+        int depth = 1;
+        while (tokens.has(0)) {
+            int kind = tokens.getKind(0);
+            tokens.advance();
+            if (kind == TokenKind.DO) {
+                depth++;
+            } else if (kind == TokenKind.END && --depth == 0) {
+                return true;
+            } else if (kind == TokenKind.DEF) {
+                return false;
+            }
+        }
+        return false;
     }
 
     /**
@@ -91,38 +537,25 @@ public final class Parser {
      * statement, then it is an expression/assignment statement.
      */
     public Ast.Statement parseStatement() throws ParseException {
-        try {
-//            if (match("LET")) {
-//                return parseDeclarationStatement();
-//            } else if (match("IF")) {
-//                return parseIfStatement();
-//            } else if (match("FOR")) {
-//                return parseForStatement();
-//            } else if (match("WHILE")) {
-//                return parseWhileStatement();
-//            } else if (match("RETURN")) {
-//                return parseReturnStatement();
-//            } else {
-                Ast.Expression leftSide = parseExpression();
-                if (!match("=")) {
-                    if (!match(";")) {
-                        throw new ParseException("Expected semicolon", tokens.get(-1).getIndex());
-                    }
-                    return new Ast.Statement.Expression(leftSide);
-                }
-
-                Ast.Expression rightSide = parseExpression();
-
-                if (!match(";")) {
-                    throw new ParseException("Expected semicolon", tokens.get(-1).getIndex());
-                }
-                return new Ast.Statement.Assignment(leftSide, rightSide);
-//            }
-
-        } catch (ParseException e) {
-            throw new ParseException(e.getMessage(), e.getIndex());
+        if (match(TokenKind.LET)) {
+            return parseDeclarationStatement();
+        } else if (match(TokenKind.IF)) {
+            return parseIfStatement();
+        } else if (match(TokenKind.FOR)) {
+            return parseForStatement();
+        } else if (match(TokenKind.WHILE)) {
+            return parseWhileStatement();
+        } else if (match(TokenKind.RETURN)) {
+            return parseReturnStatement();
         }
-        //throw new UnsupportedOperationException(); //TODO
+        Ast.Expression receiver = parseExpression();
+        if (match(TokenKind.EQUALS)) {
+            Ast.Expression value = parseExpression();
+            require(TokenKind.SEMICOLON, "Expected semicolon");
+            return new Ast.Statement.Assignment(receiver, value);
+        }
+        require(TokenKind.SEMICOLON, "Expected semicolon");
+        return new Ast.Statement.Expression(receiver);
     }
 
     /**
@@ -130,27 +563,14 @@ public final class Parser {
      * method should only be called if the next tokens start a declaration
      * statement, aka {@code LET}.
      */
-
     public Ast.Statement.Declaration parseDeclarationStatement() throws ParseException {
-        if(match(Token.Type.IDENTIFIER)) {
-            String identifier = tokens.get(-1).getLiteral();
-
-            if(match("=")){
-                Ast.Expression expression = parseExpression();
-                if(match(";")){
-                    return new Ast.Statement.Declaration(identifier, Optional.of(expression));
-                }
-            }else{
-                if(match("=")){
-                    return new Ast.Statement.Declaration(identifier, Optional.empty());
-                }
-            }
-        } else {
-            throw new ParseException("Invalid Identifier", tokens.index);
+        String name = require(Token.Type.IDENTIFIER, "Expected identifier");
+        Optional<Ast.Expression> value = Optional.empty();
+        if (match(TokenKind.EQUALS)) {
+            value = Optional.of(parseExpression());
         }
-
-        throw new ParseException("Expected semicolon", tokens.index);
-        //throw new UnsupportedOperationException(); //TODO
+        require(TokenKind.SEMICOLON, "Expected semicolon");
+        return new Ast.Statement.Declaration(name, value);
     }
 
     /**
@@ -159,7 +579,15 @@ public final class Parser {
      * {@code IF}.
      */
     public Ast.Statement.If parseIfStatement() throws ParseException {
-        throw new UnsupportedOperationException(); //TODO
+        Ast.Expression condition = parseExpression();
+        require(TokenKind.DO, "Expected DO");
+        List<Ast.Statement> thenStatements = parseBlock(true);
+        List<Ast.Statement> elseStatements = new ArrayList<>();
+        if (match(TokenKind.ELSE)) {
+            elseStatements = parseBlock(false);
+        }
+        require(TokenKind.END, "Expected END");
+        return new Ast.Statement.If(condition, thenStatements, elseStatements);
     }
 
     /**
@@ -168,7 +596,13 @@ public final class Parser {
      * {@code FOR}.
      */
     public Ast.Statement.For parseForStatement() throws ParseException {
-        throw new UnsupportedOperationException(); //TODO
+        String name = require(Token.Type.IDENTIFIER, "Expected identifier");
+        require(TokenKind.IN, "Expected IN");
+        Ast.Expression value = parseExpression();
+        require(TokenKind.DO, "Expected DO");
+        List<Ast.Statement> statements = parseBlock(false);
+        require(TokenKind.END, "Expected END");
+        return new Ast.Statement.For(name, value, statements);
     }
 
     /**
@@ -177,7 +611,11 @@ public final class Parser {
      * {@code WHILE}.
      */
     public Ast.Statement.While parseWhileStatement() throws ParseException {
-        throw new UnsupportedOperationException(); //TODO
+        Ast.Expression condition = parseExpression();
+        require(TokenKind.DO, "Expected DO");
+        List<Ast.Statement> statements = parseBlock(false);
+        require(TokenKind.END, "Expected END");
+        return new Ast.Statement.While(condition, statements);
     }
 
     /**
@@ -186,133 +624,227 @@ public final class Parser {
      * {@code RETURN}.
      */
     public Ast.Statement.Return parseReturnStatement() throws ParseException {
-        throw new UnsupportedOperationException(); //TODO
+        Ast.Expression value = parseExpression();
+        require(TokenKind.SEMICOLON, "Expected semicolon");
+        return new Ast.Statement.Return(value);
+    }
+
+    /**
+     * Parses statements up to the {@code END} of the block, or its {@code ELSE}
+     * if allowed, which is left for the caller to match. A {@code DEF} also
+     * ends the block, since a method cannot contain one, so a missing {@code
+     * END} is reported there rather than after parsing the next method as
+     * statements.
+     */
+    private List<Ast.Statement> parseBlock(boolean allowElse) throws ParseException {
+        List<Ast.Statement> statements = new ArrayList<>();
+        long end = allowElse ? BLOCK_END_OR_ELSE : BLOCK_END;
+        while (tokens.has(0) && !peek(end)) {
+            try {
+                statements.add(parseStatement());
+            } catch (ParseException e) {
+                recover(e);
+                synchronizeStatement();
+                statements.add(new Ast.Statement.Expression(new Ast.Expression.Error(e.getMessage())));
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * Skips the rest of a statement with an error, up to just past the next
+     * {@code ;} or to the next keyword which starts a statement or ends a
+     * block.
+     */
+    private void synchronizeStatement() {
+        while (tokens.has(0) && !peek(STATEMENT_START)) {
+            if (match(TokenKind.SEMICOLON)) {
+                return;
+            }
+            tokens.advance();
+        }
     }
 
     /**
      * Parses the {@code expression} rule.
      */
     public Ast.Expression parseExpression() throws ParseException {
-        try {
-            return parseLogicalExpression();
-        } catch (ParseException e) {
-            throw new ParseException(e.getMessage(), e.getIndex());
+        if (mode == Mode.ITERATIVE) {
+            return parseExpressionIteratively();
         }
-        //throw new UnsupportedOperationException(); //TODO
+        return parseBinaryExpression(LOGICAL);
     }
 
     /**
      * Parses the {@code logical-expression} rule.
      */
     public Ast.Expression parseLogicalExpression() throws ParseException {
-        try {
-            Ast.Expression astResult = parseEqualityExpression();
-            while (match("&&") || match("||")) { // right
-                String op = tokens.get(-1).getLiteral();
-                Ast.Expression rightExpression = parseEqualityExpression();
-                astResult = new Ast.Expression.Binary(op, astResult, rightExpression);
-            }
-            return astResult;
-
-        } catch(ParseException e) {
-            throw new ParseException(e.getMessage(), e.getIndex());
-        }
-        //throw new UnsupportedOperationException(); //TODO
+        return parseBinaryExpression(LOGICAL);
     }
 
     /**
      * Parses the {@code equality-expression} rule.
      */
     public Ast.Expression parseEqualityExpression() throws ParseException {
-        try {
-            Ast.Expression astResult = parseAdditiveExpression();
-            while (match("!=") || match("==") || match(">=") || match(">") || match("<=") || match("<")) {
-                String op = tokens.get(-1).getLiteral();
-                Ast.Expression rightExpression = parseEqualityExpression();
-                astResult = new Ast.Expression.Binary(op, astResult, rightExpression);
-            }
-            return astResult;
-        } catch(ParseException e) {
-            throw new ParseException(e.getMessage(), e.getIndex());
-        }
-        //throw new UnsupportedOperationException(); //TODO
+        return parseBinaryExpression(EQUALITY);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expression parseAdditiveExpression() throws ParseException {
-        try {
-            Ast.Expression astResult = parseMultiplicativeExpression();
-
-            while (match("+") || match("-")) {
-                String op = tokens.get(-1).getLiteral();
-                Ast.Expression rightExpression = parseMultiplicativeExpression();
-                astResult = new Ast.Expression.Binary(op, astResult, rightExpression);
-            }
-            return astResult;
-
-        } catch(ParseException e) {
-            throw new ParseException(e.getMessage(), e.getIndex());
-        }
-        //throw new UnsupportedOperationException(); //TODO
+        return parseBinaryExpression(ADDITIVE);
     }
 
     /**
      * Parses the {@code multiplicative-expression} rule.
      */
     public Ast.Expression parseMultiplicativeExpression() throws ParseException {
-        try {
-            Ast.Expression astResult = parseSecondaryExpression();
+        return parseBinaryExpression(MULTIPLICATIVE);
+    }
 
-            while (match("/") || match("*")) { // right
-                String op = tokens.get(-1).getLiteral();
-                Ast.Expression rightExpression = parseSecondaryExpression();
-                astResult = new Ast.Expression.Binary(op, astResult, rightExpression);
+    /**
+     * Parses a chain of binary operators of at least the given precedence by
+     * precedence climbing, which replaces a method per level of the grammar
+     * with the {@link #PRECEDENCE} table. Each operator's right operand is
+     * parsed at a higher precedence (the same one, if it is right associative)
+     * and the loop then continues with the next operator, so a chain of
+     * operators of one level is parsed by a single loop.
+     */
+    private Ast.Expression parseBinaryExpression(int minimum) throws ParseException {
+        Ast.Expression left = parseSecondaryExpression();
+        while (tokens.has(0)) {
+            int kind = tokens.getKind(0);
+            int precedence = kind == TokenKind.NONE ? 0 : PRECEDENCE[kind];
+            if (precedence < minimum) {
+                break;
             }
-            return astResult;
-        } catch(ParseException e) {
-            throw new ParseException(e.getMessage(), e.getIndex());
+            tokens.advance();
+            Ast.Expression right = parseBinaryExpression(RIGHT_ASSOCIATIVE[kind] ? precedence : precedence + 1);
+            left = new Ast.Expression.Binary(TokenKind.getName(kind), left, right);
         }
-        //throw new UnsupportedOperationException(); //TODO
+        return left;
     }
 
     /**
-     * Parses the {@code secondary-expression} rule.
+     * Parses the {@code expression} rule without recursion, as the shunting
+     * yard algorithm does, for {@link Mode#ITERATIVE}. Operands and binary
+     * operators are kept on an {@link ExpressionStack}, where an operator is
+     * reduced once the next one binds no tighter, with the same {@link
+     * #PRECEDENCE} table as {@link #parseBinaryExpression(int)}. A group or
+     * an argument list opens a frame on the stack instead of recursing, and
+     * its closing parenthesis reduces the frame back to a single operand.
      */
-    public Ast.Expression parseSecondaryExpression() throws ParseException {
-        try {
-            Ast.Expression initialExpression = parsePrimaryExpression();
+    private Ast.Expression parseExpressionIteratively() throws ParseException {
+        if (stack == null) {
+            stack = new ExpressionStack();
+        }
+        ExpressionStack stack = this.stack;
+        stack.clear();
+        operand:
+        while (true) {
+            Ast.Expression operand;
+            if (match(TokenKind.LEFT_PAREN)) {
+                stack.open(ExpressionStack.GROUP, null, null);
+                continue;
+            } else if (peek(Token.Type.IDENTIFIER) && !isLiteralKeyword(tokens.getKind(0))) {
+                tokens.advance();
+                String name = tokens.getLiteral(-1);
+                if (!match(TokenKind.LEFT_PAREN)) {
+                    operand = new Ast.Expression.Access(Optional.empty(), name);
+                } else if (match(TokenKind.RIGHT_PAREN)) {
+                    operand = new Ast.Expression.Function(Optional.empty(), name, Collections.emptyList());
+                } else {
+                    stack.open(ExpressionStack.FUNCTION, null, name);
+                    continue;
+                }
+            } else {
+                operand = parsePrimaryExpression();
+            }
+
+            while (true) {
+                // the secondary-expression rule, following any primary
+                while (match(TokenKind.DOT)) {
+                    String name = require(Token.Type.IDENTIFIER, "Invalid Identifier");
+                    if (!match(TokenKind.LEFT_PAREN)) {
+                        operand = new Ast.Expression.Access(Optional.of(operand), name);
+                    } else if (match(TokenKind.RIGHT_PAREN)) {
+                        operand = new Ast.Expression.Function(Optional.of(operand), name, new ArrayList<>());
+                    } else {
+                        stack.open(ExpressionStack.METHOD, operand, name);
+                        continue operand;
+                    }
+                }
 
-            while (match(".")) {
-                if (!match(Token.Type.IDENTIFIER)) {
-                    throw new ParseException("Invalid Identifier", tokens.get(0).getIndex());
+                int kind = tokens.has(0) ? tokens.getKind(0) : TokenKind.NONE;
+                int precedence = kind == TokenKind.NONE ? 0 : PRECEDENCE[kind];
+                if (precedence > 0) {
+                    stack.push(operand);
+                    stack.reduce(RIGHT_ASSOCIATIVE[kind] ? precedence + 1 : precedence);
+                    stack.push(kind);
+                    tokens.advance();
+                    continue operand;
                 }
-                // Identifier found
-                String lit = tokens.get(-1).getLiteral();
-                if (!match("(")) { // No expression after
-                    initialExpression = new Ast.Expression.Access(Optional.of(initialExpression), lit);
-                } else {
-                    // Found '('
-                    List<Ast.Expression> inputs = new ArrayList<>();
-                    if(!match(")")) { // Found expression after
-                        inputs.add(parseExpression());
-                        while (match(",")) {
-                            inputs.add(parseExpression());
-                        }
-                        if(!match(")")) { // Check closing parentheses
-                            throw new ParseException("Invalid function closing parentheses not found", tokens.get(0).getIndex());
+
+                // the end of the innermost expression, which closes its frame
+                stack.push(operand);
+                stack.reduce(1);
+                operand = stack.pop();
+                if (stack.isEmpty()) {
+                    return operand;
+                }
+                switch (stack.getFrame()) {
+                    case ExpressionStack.GROUP:
+                        require(TokenKind.RIGHT_PAREN, "Expected closing parenthesis");
+                        stack.close();
+                        operand = new Ast.Expression.Group(operand);
+                        break;
+                    default:
+                        stack.push(operand);
+                        if (match(TokenKind.COMMA)) {
+                            continue operand;
                         }
-                    }
-                    initialExpression = new Ast.Expression.Function(Optional.of(initialExpression), lit, inputs);
+                        require(TokenKind.RIGHT_PAREN, stack.getFrame() == ExpressionStack.FUNCTION
+                                ? "Closing parentheses expected" : "Invalid function closing parentheses not found");
+                        Ast.Expression receiver = stack.getReceiver();
+                        String name = stack.getName();
+                        List<Ast.Expression> arguments = stack.close();
+                        operand = new Ast.Expression.Function(Optional.ofNullable(receiver), name, arguments);
+                        break;
                 }
             }
-            return initialExpression;
+        }
+    }
 
-        } catch (ParseException e) {
-            throw new ParseException(e.getMessage(), e.getIndex());
+    /**
+     * Returns {@code true} if the kind is a keyword the {@code
+     * primary-expression} rule parses as a literal.
+     */
+    private static boolean isLiteralKeyword(int kind) {
+        return contains(LITERAL_KEYWORDS, kind);
+    }
+
+    /**
+     * Parses the {@code secondary-expression} rule.
+     */
+    public Ast.Expression parseSecondaryExpression() throws ParseException {
+        Ast.Expression expression = parsePrimaryExpression();
+        while (match(TokenKind.DOT)) {
+            String name = require(Token.Type.IDENTIFIER, "Invalid Identifier");
+            if (!match(TokenKind.LEFT_PAREN)) {
+                expression = new Ast.Expression.Access(Optional.of(expression), name);
+            } else {
+                List<Ast.Expression> arguments = new ArrayList<>();
+                if (!match(TokenKind.RIGHT_PAREN)) {
+                    do {
+                        arguments.add(parseExpression());
+                    } while (match(TokenKind.COMMA));
+                    require(TokenKind.RIGHT_PAREN, "Invalid function closing parentheses not found");
+                }
+                expression = new Ast.Expression.Function(Optional.of(expression), name, arguments);
+            }
         }
-        //throw new UnsupportedOperationException(); //TODO
+        return expression;
     }
 
     /**
@@ -322,157 +854,629 @@ public final class Parser {
      * not strictly necessary.
      */
     public Ast.Expression parsePrimaryExpression() throws ParseException {
-        if (match("NIL")) {
+        if (match(TokenKind.NIL)) {
             return new Ast.Expression.Literal(null);
-        }
-        else if (match("TRUE")) {
+        } else if (match(TokenKind.TRUE)) {
             return new Ast.Expression.Literal(true);
-        }
-        else if (match("FALSE")) {
+        } else if (match(TokenKind.FALSE)) {
             return new Ast.Expression.Literal(false);
-        }
-        else if (match(Token.Type.INTEGER)) { // INTEGER LITERAL FOUND
-            return new Ast.Expression.Literal(new BigInteger(tokens.get(-1).getLiteral()));
-        }
-        else if (match(Token.Type.DECIMAL)) { // DECIMAL LITERAL FOUND
-            return new Ast.Expression.Literal(new BigDecimal(tokens.get(-1).getLiteral()));
-        }
-        else if (match(Token.Type.CHARACTER)) { // CHARACTER LITERAL FOUND
-            String str = tokens.get(-1).getLiteral();
-            return new Ast.Expression.Literal(str.charAt(1));
-        }
-        else if (match(Token.Type.STRING)) { // STRING LITERAL FOUND
-            String str = tokens.get(-1).getLiteral();
-            str = str.substring(1, str.length() - 1);
-            if(str.contains("\\")) {
-                str = str.replace("\\n", "\n")
-                        .replace("\\t", "\t")
-                        .replace("\\b", "\b")
-                        .replace("\\r", "\r")
-                        .replace("\\'", "'")
-                        .replace("\\\\", "\\")
-                        .replace("\\\"", "\"");
+        } else if (tokens.has(0) && LITERALS.contains(tokens.getType(0))) {
+            tokens.advance();
+            // numbers and escapes are decoded by the token
+            return new Ast.Expression.Literal(tokens.getValue(-1));
+        } else if (match(Token.Type.IDENTIFIER)) {
+            String name = tokens.getLiteral(-1);
+            if (!match(TokenKind.LEFT_PAREN)) {
+                return new Ast.Expression.Access(Optional.empty(), name);
+            } else if (match(TokenKind.RIGHT_PAREN)) {
+                return new Ast.Expression.Function(Optional.empty(), name, Collections.emptyList());
             }
-            return new Ast.Expression.Literal(str);
+            List<Ast.Expression> arguments = new ArrayList<>();
+            do {
+                arguments.add(parseExpression());
+            } while (match(TokenKind.COMMA));
+            require(TokenKind.RIGHT_PAREN, "Closing parentheses expected");
+            return new Ast.Expression.Function(Optional.empty(), name, arguments);
+        } else if (match(TokenKind.LEFT_PAREN)) {
+            Ast.Expression expression = parseExpression();
+            require(TokenKind.RIGHT_PAREN, "Expected closing parenthesis");
+            return new Ast.Expression.Group(expression);
         }
-        else if (match(Token.Type.IDENTIFIER)) { // IDENTIFIER FOUND
-            String val = tokens.get(-1).getLiteral();
-            if (!match("(")) { // no expression after identifier
-                return new Ast.Expression.Access(Optional.empty(), val);
-            }
-            else { // expression after identifier
-                if (!match(")")) { // expression arguments found
-                    Ast.Expression initalExpr = parseExpression();
-                    List<Ast.Expression> inputs = new ArrayList<>();
-                    inputs.add(initalExpr);
-
-                    while (match(",")) {
-                        inputs.add(parseExpression());
-                    }
+        throw new ParseException("Invalid Primary Expression", errorIndex());
+    }
 
-                    if (match(")")) { // Check closing parentheses
-                        return new Ast.Expression.Function(Optional.empty(), val, inputs);
-                    } else {
-                        throw new ParseException("Closing parentheses expected", tokens.get(-1).getIndex());
-                    }
-                } else {
-                    if (!tokens.get(-1).getLiteral().equals(")")) {
-                        throw new ParseException("Closing parentheses expected", tokens.get(-1).getIndex());
-                    } else {
-                        return new Ast.Expression.Function(Optional.empty(), val, Collections.emptyList());
-                    }
-                }
+    /**
+     * Returns {@code true} if the next token is of the given {@link TokenKind},
+     * which is how keywords and operators are matched. This compares the int
+     * kind the lexer classified the token as rather than its literal.
+     */
+    private boolean peek(int kind) {
+        return tokens.has(0) && tokens.getKind(0) == kind;
+    }
 
+    /**
+     * Returns {@code true} if {@link #peek(int)} is true and advances the token
+     * stream.
+     */
+    private boolean match(int kind) {
+        boolean peek = peek(kind);
+        if (peek) {
+            tokens.advance();
+        }
+        return peek;
+    }
 
-            }
+    /**
+     * Returns {@code true} if the next token is of the given {@link
+     * Token.Type}, such as an identifier or a literal.
+     */
+    private boolean peek(Token.Type type) {
+        return tokens.has(0) && tokens.getType(0) == type;
+    }
 
-        } else if (match("(")) {
-            Ast.Expression expression = parseExpression();
-            if (!match(")")) {
-                throw new ParseException("Expected closing parenthesis", tokens.get(-1).getIndex());
-            }
-            return new Ast.Expression.Group(expression);
-        } else {
-            throw new ParseException("Invalid Primary Expression", tokens.get(-1).getIndex());
-            // TODO: handle storing the actual character index instead of I
+    /**
+     * Returns {@code true} if {@link #peek(Token.Type)} is true and advances
+     * the token stream.
+     */
+    private boolean match(Token.Type type) {
+        boolean peek = peek(type);
+        if (peek) {
+            tokens.advance();
         }
-        //throw new UnsupportedOperationException(); //TODO
+        return peek;
     }
 
     /**
-     * As in the lexer, returns {@code true} if the current sequence of tokens
-     * matches the given patterns. Unlike the lexer, the pattern is not a regex;
-     * instead it is either a {@link Token.Type}, which matches if the token's
-     * type is the same, or a {@link String}, which matches if the token's
-     * literal is the same.
-     *
-     * In other words, {@code Token(IDENTIFIER, "literal")} is matched by both
-     * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}.
+     * Returns {@code true} if the kind of the next token is in the given set
+     * of {@link TokenKind}s built by {@link #kinds(int...)}.
      */
-    private boolean peek(Object... patterns) {
-        for(int i = 0; i < patterns.length; i++){
-            if(!tokens.has(i)){
-                return false;
-            } else if (patterns[i] instanceof Token.Type) {
-                if(patterns[i] != tokens.get(i).getType()){
-                    return false;
-                }
-            } else if (patterns[i] instanceof String){
-                if(!patterns[i].equals(tokens.get(i).getLiteral())){
-                    return false;
-                }
-            } else {
-                throw new AssertionError("Invalid pattern object: " + patterns[i].getClass());
-            }
+    private boolean peek(long kinds) {
+        return tokens.has(0) && contains(kinds, tokens.getKind(0));
+    }
+
+    private static boolean contains(long kinds, int kind) {
+        return (kinds >>> kind & 1) != 0;
+    }
+
+    private static long kinds(int... kinds) {
+        long set = 0;
+        for (int kind : kinds) {
+            set |= 1L << kind;
         }
-        return true;
-//        throw new UnsupportedOperationException(); //TODO (in lecture)
+        return set;
     }
 
     /**
-     * As in the lexer, returns {@code true} if {@link #peek(Object...)} is true
-     * and advances the token stream.
+     * Adds left associative binary operators to the precedence table.
      */
-    private boolean match(Object... patterns) {
-        boolean peek = peek(patterns);
+    private static void binary(int precedence, int... kinds) {
+        for (int kind : kinds) {
+            PRECEDENCE[kind] = (byte) precedence;
+        }
+    }
 
-        if(peek){
-            for(int i = 0; i< patterns.length; i++){
-                tokens.advance();
-            }
+    /**
+     * Matches a token of the given type and returns its literal, or throws
+     * the error at {@link #errorIndex()}.
+     */
+    private String require(Token.Type type, String message) throws ParseException {
+        if (!match(type)) {
+            throw new ParseException(message, errorIndex());
         }
-        return peek;
-//        throw new UnsupportedOperationException(); //TODO (in lecture)
+        return tokens.getLiteral(-1);
     }
 
-    private static final class TokenStream {
+    /**
+     * Matches a token of the given {@link TokenKind}, or throws the error at
+     * {@link #errorIndex()}.
+     */
+    private void require(int kind, String message) throws ParseException {
+        if (!match(kind)) {
+            throw new ParseException(message, errorIndex());
+        }
+    }
 
-        private final List<Token> tokens;
-        private int index = 0;
+    /**
+     * Returns the index to report an error about the next token at, which is
+     * the index of that token, or just past the last token at the end of the
+     * input.
+     */
+    private int errorIndex() {
+        if (tokens.has(0)) {
+            return tokens.getIndex(0);
+        }
+        return tokens.index == 0 ? 0 : tokens.getEnd(-1);
+    }
 
-        private TokenStream(List<Token> tokens) {
-            this.tokens = tokens;
+    /**
+     * Throws the error if there are no diagnostics or the parser is parsing a
+     * chunk speculatively, and otherwise reports it so the caller can recover,
+     * unless it is at an {@link Token.Type#ERROR} token the lexer reported
+     * already.
+     */
+    private void recover(ParseException e) throws ParseException {
+        if (diagnostics == null || speculative) {
+            throw e;
+        } else if (!tokens.has(0) || tokens.getType(0) != Token.Type.ERROR || tokens.getIndex(0) != e.getIndex()) {
+            diagnostics.report(e.getMessage(), e.getIndex());
         }
+    }
+
+    /**
+     * The tokens being parsed, read either from a list of {@link Token}s or
+     * directly from the parallel arrays of a {@link TokenBuffer}. The parser
+     * reads tokens through {@link #getType(int)}, {@link #getKind(int)},
+     * {@link #getLiteral(int)}, {@link #getValue(int)}, {@link #getIndex(int)},
+     * {@link #getSymbol(int)} and {@link #matches(int, String)}, so the buffer
+     * form never needs to create a {@link Token}.
+     */
+    private static abstract class TokenStream {
+
+        protected int index = 0;
 
         /**
          * Returns true if there is a token at index + offset.
          */
-        public boolean has(int offset) {
-            return index + offset < tokens.size();
-        }
+        public abstract boolean has(int offset);
 
         /**
          * Gets the token at index + offset.
          */
+        public abstract Token get(int offset);
+
+        /**
+         * Gets the type of the token at index + offset.
+         */
+        public abstract Token.Type getType(int offset);
+
+        /**
+         * Gets the literal of the token at index + offset.
+         */
+        public abstract String getLiteral(int offset);
+
+        /**
+         * Gets the decoded value of the literal token at index + offset.
+         */
+        public abstract Object getValue(int offset);
+
+        /**
+         * Gets the character index of the token at index + offset.
+         */
+        public abstract int getIndex(int offset);
+
+        /**
+         * Gets the character index just past the end of the token at index +
+         * offset.
+         */
+        public abstract int getEnd(int offset);
+
+        /**
+         * Gets the {@link TokenKind} of the token at index + offset.
+         */
+        public abstract int getKind(int offset);
+
+        /**
+         * Gets the {@link SymbolTable} id of the token at index + offset, or
+         * {@code -1} if it was not interned.
+         */
+        public abstract int getSymbol(int offset);
+
+        /**
+         * Returns true if the literal of the token at index + offset is equal to
+         * the given literal.
+         */
+        public abstract boolean matches(int offset, String literal);
+
+        /**
+         * Returns a stream of the tokens in {@code [from, to)} of this one,
+         * starting at {@code from}, which shares the tokens without copying.
+         */
+        public abstract TokenStream view(int from, int to);
+
+        /**
+         * Advances to the next token, incrementing the index.
+         */
+        public void advance() {
+            index++;
+        }
+
+    }
+
+    private static final class ListTokenStream extends TokenStream {
+
+        private final List<Token> tokens;
+        private final int limit;
+
+        private ListTokenStream(List<Token> tokens) {
+            this(tokens, 0, tokens.size());
+        }
+
+        private ListTokenStream(List<Token> tokens, int from, int to) {
+            this.tokens = tokens;
+            this.index = from;
+            this.limit = to;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            return index + offset < limit;
+        }
+
+        @Override
+        public Token get(int offset) {
+            return tokens.get(index + offset);
+        }
+
+        @Override
+        public Token.Type getType(int offset) {
+            return tokens.get(index + offset).getType();
+        }
+
+        @Override
+        public String getLiteral(int offset) {
+            return tokens.get(index + offset).getLiteral();
+        }
+
+        @Override
+        public Object getValue(int offset) {
+            return tokens.get(index + offset).getValue();
+        }
+
+        @Override
+        public int getIndex(int offset) {
+            return tokens.get(index + offset).getIndex();
+        }
+
+        @Override
+        public int getEnd(int offset) {
+            return tokens.get(index + offset).getEnd();
+        }
+
+        @Override
+        public int getKind(int offset) {
+            return tokens.get(index + offset).getKind();
+        }
+
+        @Override
+        public int getSymbol(int offset) {
+            return tokens.get(index + offset).getSymbol();
+        }
+
+        @Override
+        public boolean matches(int offset, String literal) {
+            return literal.equals(tokens.get(index + offset).getLiteral());
+        }
+
+        @Override
+        public TokenStream view(int from, int to) {
+            return new ListTokenStream(tokens, from, to);
+        }
+
+    }
+
+    private static final class BufferTokenStream extends TokenStream {
+
+        private final TokenBuffer tokens;
+        private final int limit;
+
+        private BufferTokenStream(TokenBuffer tokens) {
+            this(tokens, 0, tokens.size());
+        }
+
+        private BufferTokenStream(TokenBuffer tokens, int from, int to) {
+            this.tokens = tokens;
+            this.index = from;
+            this.limit = to;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            return index + offset < limit;
+        }
+
+        @Override
         public Token get(int offset) {
             return tokens.get(index + offset);
         }
 
+        @Override
+        public Token.Type getType(int offset) {
+            return tokens.getType(index + offset);
+        }
+
+        @Override
+        public String getLiteral(int offset) {
+            return tokens.getLiteral(index + offset);
+        }
+
+        @Override
+        public Object getValue(int offset) {
+            return tokens.getValue(index + offset);
+        }
+
+        @Override
+        public int getIndex(int offset) {
+            return tokens.getStart(index + offset);
+        }
+
+        @Override
+        public int getEnd(int offset) {
+            return tokens.getStart(index + offset) + tokens.getLength(index + offset);
+        }
+
+        @Override
+        public int getKind(int offset) {
+            return tokens.getKind(index + offset);
+        }
+
+        @Override
+        public int getSymbol(int offset) {
+            return tokens.getSymbol(index + offset);
+        }
+
+        @Override
+        public boolean matches(int offset, String literal) {
+            return tokens.matches(index + offset, literal);
+        }
+
+        @Override
+        public TokenStream view(int from, int to) {
+            return new BufferTokenStream(tokens, from, to);
+        }
+
+    }
+
+    /**
+     * Reads tokens from a {@link TokenRing}, waiting in {@link #has(int)} for
+     * the producer. Tokens before the lookbehind are released every {@link
+     * #BATCH} tokens, which keeps the release a rare volatile write.
+     */
+    private static final class RingTokenStream extends TokenStream {
+
+        private static final int LOOKBEHIND = 1;
+        private static final int LOOKAHEAD = 4;
+        private static final int BATCH = 64;
+        private static final int MIN_CAPACITY = BATCH + LOOKBEHIND + LOOKAHEAD;
+
+        private final TokenRing ring;
+
+        private RingTokenStream(TokenRing ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            return ring.has(index + offset);
+        }
+
+        @Override
+        public Token get(int offset) {
+            return ring.get(index + offset);
+        }
+
+        @Override
+        public Token.Type getType(int offset) {
+            return get(offset).getType();
+        }
+
+        @Override
+        public String getLiteral(int offset) {
+            return get(offset).getLiteral();
+        }
+
+        @Override
+        public Object getValue(int offset) {
+            return get(offset).getValue();
+        }
+
+        @Override
+        public int getIndex(int offset) {
+            return get(offset).getIndex();
+        }
+
+        @Override
+        public int getEnd(int offset) {
+            return get(offset).getEnd();
+        }
+
+        @Override
+        public int getKind(int offset) {
+            return get(offset).getKind();
+        }
+
+        @Override
+        public int getSymbol(int offset) {
+            return get(offset).getSymbol();
+        }
+
+        @Override
+        public boolean matches(int offset, String literal) {
+            return literal.equals(get(offset).getLiteral());
+        }
+
         /**
-         * Advances to the next token, incrementing the index.
+         * Tokens are released once parsed, so a ring cannot be viewed.
          */
+        @Override
+        public TokenStream view(int from, int to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
         public void advance() {
             index++;
+            if (index % BATCH == 0) {
+                ring.release(index - LOOKBEHIND);
+            }
+        }
+
+    }
+
+    /**
+     * The statements of a method body pre-parsed by {@link #withLazyBodies},
+     * parsed from the tokens of the body (through its {@code END}) by a new
+     * parser the first time they are read. The tokens are dropped once parsed,
+     * and the parse is done once even if the method is shared across threads.
+     */
+    private static final class LazyStatements extends AbstractList<Ast.Statement> {
+
+        private final Mode mode;
+        private final Diagnostics diagnostics;
+        private TokenStream tokens;
+        private volatile List<Ast.Statement> statements;
+
+        private LazyStatements(TokenStream tokens, Mode mode, Diagnostics diagnostics) {
+            this.tokens = tokens;
+            this.mode = mode;
+            this.diagnostics = diagnostics;
+        }
+
+        @Override
+        public Ast.Statement get(int index) {
+            return statements().get(index);
+        }
+
+        @Override
+        public int size() {
+            return statements().size();
+        }
+
+        private List<Ast.Statement> statements() {
+            List<Ast.Statement> statements = this.statements;
+            if (statements == null) {
+                synchronized (this) {
+                    statements = this.statements;
+                    if (statements == null) {
+                        Parser parser = new Parser(tokens, mode, diagnostics);
+                        statements = parser.parseBlock(false);
+                        parser.require(TokenKind.END, "Expected END");
+                        this.statements = statements;
+                        tokens = null;
+                    }
+                }
+            }
+            return statements;
+        }
+
+    }
+
+    /**
+     * The stacks of {@link #parseExpressionIteratively()}: operands, binary
+     * operator kinds and the frames of open groups and argument lists. Each
+     * frame records where its operands and operators start, so reducing only
+     * ever reaches into the innermost frame, and the arguments of a call are
+     * the operands left in its frame when it closes. The arrays grow as
+     * needed and are kept by the parser for the next expression.
+     */
+    private static final class ExpressionStack {
+
+        private static final int GROUP = 0;
+        private static final int FUNCTION = 1;
+        private static final int METHOD = 2;
+
+        private Ast.Expression[] operands = new Ast.Expression[16];
+        private int operandCount = 0;
+        private int[] operators = new int[16];
+        private int operatorCount = 0;
+
+        private int[] frames = new int[16];
+        private int[] operandBases = new int[16];
+        private int[] operatorBases = new int[16];
+        private Ast.Expression[] receivers = new Ast.Expression[16];
+        private String[] names = new String[16];
+        private int frameCount = 0;
+
+        private void clear() {
+            Arrays.fill(operands, 0, operandCount, null);
+            Arrays.fill(receivers, 0, frameCount, null);
+            Arrays.fill(names, 0, frameCount, null);
+            operandCount = 0;
+            operatorCount = 0;
+            frameCount = 0;
+        }
+
+        private boolean isEmpty() {
+            return frameCount == 0;
+        }
+
+        private void push(Ast.Expression operand) {
+            if (operandCount == operands.length) {
+                operands = Arrays.copyOf(operands, operands.length * 2);
+            }
+            operands[operandCount++] = operand;
+        }
+
+        private Ast.Expression pop() {
+            Ast.Expression operand = operands[--operandCount];
+            operands[operandCount] = null;
+            return operand;
+        }
+
+        private void push(int operator) {
+            if (operatorCount == operators.length) {
+                operators = Arrays.copyOf(operators, operators.length * 2);
+            }
+            operators[operatorCount++] = operator;
+        }
+
+        /**
+         * Reduces the operators of the innermost frame with at least the given
+         * precedence, from the top, into binary expressions.
+         */
+        private void reduce(int precedence) {
+            int base = frameCount == 0 ? 0 : operatorBases[frameCount - 1];
+            while (operatorCount > base && PRECEDENCE[operators[operatorCount - 1]] >= precedence) {
+                int kind = operators[--operatorCount];
+                Ast.Expression right = pop();
+                Ast.Expression left = pop();
+                push(new Ast.Expression.Binary(TokenKind.getName(kind), left, right));
+            }
+        }
+
+        private void open(int frame, Ast.Expression receiver, String name) {
+            if (frameCount == frames.length) {
+                int capacity = frames.length * 2;
+                frames = Arrays.copyOf(frames, capacity);
+                operandBases = Arrays.copyOf(operandBases, capacity);
+                operatorBases = Arrays.copyOf(operatorBases, capacity);
+                receivers = Arrays.copyOf(receivers, capacity);
+                names = Arrays.copyOf(names, capacity);
+            }
+            frames[frameCount] = frame;
+            operandBases[frameCount] = operandCount;
+            operatorBases[frameCount] = operatorCount;
+            receivers[frameCount] = receiver;
+            names[frameCount] = name;
+            frameCount++;
+        }
+
+        private int getFrame() {
+            return frames[frameCount - 1];
+        }
+
+        private Ast.Expression getReceiver() {
+            return receivers[frameCount - 1];
+        }
+
+        private String getName() {
+            return names[frameCount - 1];
+        }
+
+        /**
+         * Closes the innermost frame, returning the operands left in it.
+         */
+        private List<Ast.Expression> close() {
+            frameCount--;
+            receivers[frameCount] = null;
+            names[frameCount] = null;
+            int base = operandBases[frameCount];
+            List<Ast.Expression> arguments = new ArrayList<>(operandCount - base);
+            for (int i = base; i < operandCount; i++) {
+                arguments.add(operands[i]);
+                operands[i] = null;
+            }
+            operandCount = base;
+            return arguments;
         }
 
     }
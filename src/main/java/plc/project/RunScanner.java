@@ -0,0 +1,79 @@
+package plc.project;
+
+/**
+ * Finds the end of a run of characters of one {@link Run} kind in a buffer of
+ * chars or UTF-8 bytes, which lets the lexer skip whitespace, the rest of an
+ * identifier, or the body of a string literal in one call rather than one
+ * character at a time.
+ *
+ * This class is the scalar implementation. {@link #get()} returns {@link
+ * VectorRunScanner} instead when the {@code jdk.incubator.vector} module is
+ * available (the JVM is started with {@code --add-modules
+ * jdk.incubator.vector}), unless the {@code plc.project.vector} system property
+ * is set to {@code false}.
+ */
+public class RunScanner {
+
+    public enum Run {
+        /** The whitespace skipped between tokens, {@code [ \t\r\n]}. */
+        WHITESPACE,
+        /** The characters after the first of an identifier, {@code [A-Za-z0-9_]}. */
+        IDENTIFIER,
+        /** The characters of a string literal other than its quote and escapes. */
+        STRING_BODY;
+
+        public boolean matches(char c) {
+            switch (this) {
+                case WHITESPACE:
+                    return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+                case IDENTIFIER:
+                    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+                case STRING_BODY:
+                    return c != '"' && c != '\\';
+                default:
+                    throw new AssertionError(this);
+            }
+        }
+    }
+
+    private static final RunScanner INSTANCE = create();
+
+    public static RunScanner get() {
+        return INSTANCE;
+    }
+
+    private static RunScanner create() {
+        if (!Boolean.parseBoolean(System.getProperty("plc.project.vector", "true"))) {
+            return new RunScanner();
+        }
+        try {
+            return (RunScanner) Class.forName("plc.project.VectorRunScanner").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new RunScanner(); // the vector module isn't available
+        }
+    }
+
+    /**
+     * Returns the index of the first character in {@code [from, to)} which is
+     * not part of the run, or {@code to} if they all are.
+     */
+    public int scan(Run run, char[] chars, int from, int to) {
+        while (from < to && run.matches(chars[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Returns the index of the first byte in {@code [from, to)} which is not
+     * an ASCII character of the run, or {@code to} if they all are. Bytes
+     * outside ASCII always end the run, so the caller can decode them.
+     */
+    public int scan(Run run, byte[] bytes, int from, int to) {
+        while (from < to && bytes[from] >= 0 && run.matches((char) bytes[from])) {
+            from++;
+        }
+        return from;
+    }
+
+}
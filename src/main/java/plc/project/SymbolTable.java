@@ -0,0 +1,187 @@
+package plc.project;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Assigns each distinct identifier a dense int id and keeps one canonical
+ * {@link String} instance per identifier. The reserved words are always the
+ * first ids, in the order of the constants below, so keywords can be checked
+ * by comparing ids without knowing which table a token was interned into.
+ *
+ * A table can be shared by every lexer in a compilation batch (including the
+ * threads of {@link Lexer#lexParallel}), so equal identifiers across files
+ * share one string and one id. Looking up an identifier from a char buffer
+ * does not allocate unless the identifier is new.
+ */
+public final class SymbolTable {
+
+    public static final int LET = 0;
+    public static final int CONST = 1;
+    public static final int DEF = 2;
+    public static final int DO = 3;
+    public static final int END = 4;
+    public static final int IF = 5;
+    public static final int ELSE = 6;
+    public static final int FOR = 7;
+    public static final int IN = 8;
+    public static final int WHILE = 9;
+    public static final int RETURN = 10;
+    public static final int NIL = 11;
+    public static final int TRUE = 12;
+    public static final int FALSE = 13;
+
+    private static final String[] RESERVED = {
+            "LET", "CONST", "DEF", "DO", "END", "IF", "ELSE", "FOR", "IN", "WHILE", "RETURN", "NIL", "TRUE", "FALSE"
+    };
+
+    private volatile String[] names = new String[64];
+    private int[] slots = new int[128];
+    private int size = 0;
+
+    public SymbolTable() {
+        Arrays.fill(slots, -1);
+        for (String word : RESERVED) {
+            intern(word);
+        }
+    }
+
+    /**
+     * Returns true if the id is one of the reserved words.
+     */
+    public static boolean isReserved(int id) {
+        return id >= 0 && id < RESERVED.length;
+    }
+
+    /**
+     * Returns the name of a reserved word id, which is the same in every
+     * table.
+     */
+    public static String getReserved(int id) {
+        return RESERVED[id];
+    }
+
+    /**
+     * Returns the id of the identifier {@code chars[start, end)}, adding it if
+     * it is new.
+     */
+    public synchronized int intern(char[] chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id < 0) {
+                return add(new String(chars, start, end - start), slot);
+            } else if (equals(names[id], chars, start, end)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the ASCII identifier {@code bytes[start, end)}, adding
+     * it if it is new, as in {@link #intern(char[], int, int)}.
+     */
+    public synchronized int intern(ByteBuffer bytes, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes.get(i);
+        }
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id < 0) {
+                byte[] name = new byte[end - start];
+                bytes.get(start, name);
+                return add(new String(name, StandardCharsets.US_ASCII), slot);
+            } else if (equals(names[id], bytes, start, end)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the identifier, adding it if it is new.
+     */
+    public synchronized int intern(String name) {
+        int mask = slots.length - 1;
+        for (int slot = mix(name.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id < 0) {
+                return add(name, slot);
+            } else if (names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Returns the canonical string for an id.
+     */
+    public String getName(int id) {
+        return names[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int add(String name, int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+        int id = size++;
+        names[id] = name;
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, -1);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(names[id].hashCode()) & mask;
+            while (slots[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String name, ByteBuffer bytes, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != bytes.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(String name, char[] chars, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,283 @@
+package plc.project;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * A {@link CharStream} over chars, either from a string or pulled from a
+ * {@link Reader} or {@link CharSequence}.
+ *
+ * Input read from a reader or sequence is held in a fixed-size window which is
+ * refilled as the lexer advances. When refilling, everything before the start
+ * of the current token is discarded and the rest of the token is carried over,
+ * so indices stay absolute while memory stays bounded by the buffer size (or
+ * the longest single token, if that is larger).
+ *
+ * A string is held entirely in memory and never moves, so emitted tokens refer
+ * to their range of it and only build their literal when asked.
+ */
+public final class TextCharStream implements CharStream {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int SEQUENCE_BUFFER_SIZE = 1 << 10;
+    private static final RunScanner SCANNER = RunScanner.get();
+
+    private final Reader reader;
+    private final CharSequence sequence;
+    private final Token.Source source;
+    private SymbolTable symbols;
+    private char[] buffer;
+    private int offset = 0;
+    private int limit;
+    private int index = 0;
+    private int length = 0;
+
+    public TextCharStream(String input) {
+        this.reader = null;
+        this.sequence = null;
+        this.buffer = input.toCharArray();
+        this.limit = buffer.length;
+        char[] buffer = this.buffer;
+        this.source = new Token.Source() {
+
+            @Override
+            public String slice(int start, int end) {
+                return new String(buffer, start, end - start);
+            }
+
+            @Override
+            public boolean matches(int start, int end, String text) {
+                if (end - start != text.length()) {
+                    return false;
+                }
+                for (int i = start; i < end; i++) {
+                    if (buffer[i] != text.charAt(i - start)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+        };
+    }
+
+    public TextCharStream(Reader reader) {
+        this.reader = reader;
+        this.sequence = null;
+        this.source = null;
+        this.buffer = new char[BUFFER_SIZE];
+        this.limit = 0;
+    }
+
+    /**
+     * Creates a stream over a sequence such as the editable text of a
+     * document, starting at the given index. The sequence is pulled into the
+     * window as it is lexed rather than copied whole, so lexing a few tokens
+     * of a large document (as {@link Lexer#relex} does) only reads those
+     * characters. As with a reader, tokens are emitted with their literal, so
+     * they do not change if the sequence does.
+     */
+    public TextCharStream(CharSequence sequence, int index) {
+        this.reader = null;
+        this.sequence = sequence;
+        this.source = null;
+        this.buffer = new char[SEQUENCE_BUFFER_SIZE];
+        this.limit = 0;
+        this.offset = index;
+        this.index = index;
+    }
+
+    private TextCharStream(TextCharStream other, int index) {
+        this.reader = null;
+        this.sequence = null;
+        this.source = other.source;
+        this.symbols = other.symbols;
+        this.buffer = other.buffer;
+        this.limit = other.limit;
+        this.index = index;
+    }
+
+    @Override
+    public boolean has(int offset) {
+        return index + offset - this.offset < limit || fill(index + offset);
+    }
+
+    @Override
+    public char get(int offset) {
+        return buffer[index + offset - this.offset];
+    }
+
+    @Override
+    public int width(int offset) {
+        return 1;
+    }
+
+    @Override
+    public void advance() {
+        index++;
+        length++;
+    }
+
+    @Override
+    public void advance(int units) {
+        index += units;
+        length += units;
+    }
+
+    /**
+     * Advances past the run with the {@link RunScanner}, refilling streamed
+     * input as needed.
+     */
+    @Override
+    public void advance(RunScanner.Run run) {
+        while (has(0)) {
+            int start = index - offset;
+            int end = SCANNER.scan(run, buffer, start, limit);
+            index += end - start;
+            length += end - start;
+            if (end < limit) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void skip() {
+        length = 0;
+    }
+
+    @Override
+    public void seek(int index) {
+        this.index = index;
+        this.length = 0;
+    }
+
+    @Override
+    public Token emit(Token.Type type) {
+        int start = index - length;
+        int kind = kind(type, start, index);
+        skip();
+        if (type == Token.Type.IDENTIFIER && symbols != null) {
+            int symbol = symbol(kind, start, index);
+            return new Token(type, symbols.getName(symbol), start, symbol);
+        } else if (source != null) {
+            return new Token(type, source, start, index, kind);
+        }
+        return new Token(type, new String(buffer, start - offset, index - start), start);
+    }
+
+    @Override
+    public void emit(Token.Type type, TokenBuffer tokens) {
+        int start = index - length;
+        int kind = kind(type, start, index);
+        int symbol = type == Token.Type.IDENTIFIER ? symbol(kind, start, index) : -1;
+        tokens.add(type, start, length, symbol, kind);
+        skip();
+    }
+
+    @Override
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public Token.Source getSource() {
+        return source;
+    }
+
+    @Override
+    public int getEnd() {
+        return limit;
+    }
+
+    @Override
+    public CharStream fork(int index) {
+        if (source == null) {
+            throw new UnsupportedOperationException("Streamed input cannot be forked.");
+        }
+        return new TextCharStream(this, index);
+    }
+
+    @Override
+    public void setSymbols(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    /**
+     * Chars are always well-formed, so there is nothing to report.
+     */
+    @Override
+    public void setDiagnostics(Diagnostics diagnostics) {}
+
+    /**
+     * Classifies the token {@code [start, end)}, which must still be buffered,
+     * as a {@link TokenKind}.
+     */
+    private int kind(Token.Type type, int start, int end) {
+        if (type == Token.Type.IDENTIFIER) {
+            return TokenKind.keyword(buffer, start - offset, end - offset);
+        } else if (type == Token.Type.OPERATOR) {
+            return TokenKind.operator(buffer[start - offset], end - start == 2 ? buffer[start + 1 - offset] : 0);
+        }
+        return TokenKind.NONE;
+    }
+
+    /**
+     * Returns the symbol of the identifier {@code [start, end)} of the given
+     * kind. Keywords already know their reserved id, so only other identifiers
+     * are looked up in the symbol table.
+     */
+    private int symbol(int kind, int start, int end) {
+        return TokenKind.isKeyword(kind) ? kind : symbols.intern(buffer, start - offset, end - offset);
+    }
+
+    /**
+     * Reads from the underlying reader or sequence until the character at the
+     * given absolute position is buffered, returning false if the input ends
+     * first.
+     */
+    private boolean fill(int position) {
+        if (reader == null && sequence == null) {
+            return false;
+        }
+        try {
+            while (position - offset >= limit) {
+                int start = index - length - offset;
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, limit - start);
+                    offset += start;
+                    limit -= start;
+                } else if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int read = reader != null ? reader.read(buffer, limit, buffer.length - limit) : read();
+                if (read < 0) {
+                    return false;
+                }
+                limit += read;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copies the next chars of the sequence into the free end of the window,
+     * returning the number copied or {@code -1} at the end of the sequence.
+     */
+    private int read() {
+        int start = offset + limit;
+        int count = Math.min(buffer.length - limit, sequence.length() - start);
+        if (count <= 0) {
+            return -1;
+        }
+        for (int i = 0; i < count; i++) {
+            buffer[limit + i] = sequence.charAt(start + i);
+        }
+        return count;
+    }
+
+}
@@ -8,17 +8,100 @@ public final class Token {
         DECIMAL,
         CHARACTER,
         STRING,
-        OPERATOR
+        OPERATOR,
+        /**
+         * Input the lexer reported an error for and skipped over, produced
+         * only when lexing with {@link Lexer#withDiagnostics(Diagnostics)}.
+         */
+        ERROR
+    }
+
+    /**
+     * The input a token was lexed from, which builds the literal for a range of
+     * that input on demand. This allows tokens lexed from large inputs to refer
+     * to their text without copying it unless {@link #getLiteral()} is called.
+     */
+    @FunctionalInterface
+    public interface Source {
+
+        String slice(int start, int end);
+
+        /**
+         * Returns true if the range of the input is equal to the given text.
+         * Sources should override this to compare without building a slice.
+         */
+        default boolean matches(int start, int end, String text) {
+            return slice(start, end).equals(text);
+        }
+
     }
 
     private final Type type;
-    private final String literal;
+    private String literal;
+    private final Source source;
     private final int index;
+    private final int end;
+    private final int symbol;
+    private final int kind;
+    private Object value;
+    private long number;
+    private int scale = Numbers.UNKNOWN;
 
     public Token(Type type, String literal, int index) {
+        this(type, literal, index, -1);
+    }
+
+    /**
+     * Creates an identifier token interned as the given {@link SymbolTable}
+     * id, whose literal should be the table's canonical string.
+     */
+    public Token(Type type, String literal, int index, int symbol) {
         this.type = type;
         this.literal = literal;
+        this.source = null;
         this.index = index;
+        this.end = index + literal.length();
+        this.symbol = symbol;
+        this.kind = SymbolTable.isReserved(symbol) ? symbol : symbol >= 0 ? TokenKind.NONE : TokenKind.of(type, literal);
+    }
+
+    /**
+     * Creates a token covering {@code [index, end)} of the source, whose
+     * literal is only built when first requested, with the {@link TokenKind}
+     * the lexer classified it as.
+     */
+    public Token(Type type, Source source, int index, int end, int kind) {
+        this.type = type;
+        this.source = source;
+        this.index = index;
+        this.end = end;
+        this.symbol = -1;
+        this.kind = kind;
+    }
+
+    /**
+     * Creates a copy of the token moved by the given number of units, sharing
+     * its literal and value.
+     */
+    private Token(Token token, int delta) {
+        this.type = token.type;
+        this.literal = token.getLiteral();
+        this.source = null;
+        this.index = token.index + delta;
+        this.end = token.end + delta;
+        this.symbol = token.symbol;
+        this.kind = token.kind;
+        this.value = token.value;
+        this.number = token.number;
+        this.scale = token.scale;
+    }
+
+    /**
+     * Returns this token moved by the given number of units, as the tokens
+     * after an edit are by {@link Lexer#relex}.
+     */
+    Token shift(int delta) {
+        return new Token(this, delta);
     }
 
     public Type getType() {
@@ -26,6 +109,9 @@ public final class Token {
     }
 
     public String getLiteral() {
+        if (literal == null) {
+            literal = source.slice(index, end);
+        }
         return literal;
     }
 
@@ -33,17 +119,103 @@ public final class Token {
         return index;
     }
 
+    /**
+     * Returns the index just past the end of this token in the input.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the {@link SymbolTable} id of an identifier, or {@code -1} if the
+     * token is not an interned identifier.
+     */
+    public int getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Returns the value of a literal: a {@link String} or {@link Character}
+     * with the quotes removed and escapes decoded, or a {@link
+     * java.math.BigInteger} or {@link java.math.BigDecimal} built from the
+     * number the lexer computed if it fit in a {@code long}. The value is
+     * decoded on first use and kept, so each escape is only decoded once.
+     * Other tokens have no value.
+     */
+    public Object getValue() {
+        if (value == null) {
+            if (scale != Numbers.UNKNOWN) {
+                value = type == Type.INTEGER ? Numbers.integer(number) : Numbers.decimal(number, scale);
+            } else if (type != Type.IDENTIFIER && type != Type.OPERATOR && type != Type.ERROR) {
+                value = decode(type, getLiteral());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Sets the value of an integer or decimal literal as computed while lexing
+     * it, as an unscaled {@code long} and the number of fraction digits.
+     */
+    void setNumber(long number, int scale) {
+        this.number = number;
+        this.scale = scale;
+    }
+
+    /**
+     * Decodes the value of a literal in one pass, only copying the characters
+     * of a string or character if it contains an escape and only parsing the
+     * text of a number if it overflows a {@code long}, or returns {@code null}
+     * for other tokens.
+     */
+    static Object decode(Type type, String literal) {
+        if (type == Type.INTEGER || type == Type.DECIMAL) {
+            return Numbers.parse(type, literal);
+        } else if (type != Type.STRING && type != Type.CHARACTER) {
+            return null;
+        }
+        int end = literal.length() - 1;
+        if (literal.indexOf('\\') < 0) {
+            return type == Type.CHARACTER ? (Object) literal.charAt(1) : literal.substring(1, end);
+        }
+        char[] chars = new char[end - 1];
+        int length = 0;
+        for (int i = 1; i < end; i++) {
+            char c = literal.charAt(i);
+            chars[length++] = c == '\\' ? unescape(literal.charAt(++i)) : c;
+        }
+        return type == Type.CHARACTER ? (Object) chars[0] : new String(chars, 0, length);
+    }
+
+    private static char unescape(char c) {
+        switch (c) {
+            case 'b': return '\b';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            default: return c; // quotes and backslash stand for themselves
+        }
+    }
+
+    /**
+     * Returns the {@link TokenKind} of a keyword or operator, or {@link
+     * TokenKind#NONE} for any other token.
+     */
+    public int getKind() {
+        return kind;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token
                 && type == ((Token) obj).type
-                && literal.equals(((Token) obj).literal)
+                && getLiteral().equals(((Token) obj).getLiteral())
                 && index == ((Token) obj).index;
     }
 
     @Override
     public String toString() {
-        return type + "=" + literal + "@" + index;
+        return type + "=" + getLiteral() + "@" + index;
     }
 
 }
@@ -0,0 +1,141 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * A compact alternative to {@code List<Token>}, storing tokens as parallel
+ * primitive arrays of their type, {@link TokenKind}, start index, length and
+ * {@link SymbolTable} id rather than as one object per token. Literals are
+ * built from the {@link Token.Source} the tokens were lexed from only when
+ * requested (identifiers use the table's canonical string instead), and can be
+ * compared against a string without building them at all.
+ *
+ * The arrays grow geometrically, so adding a token is amortized constant time,
+ * and a token takes 14 bytes plus growth slack instead of a full {@link
+ * Token}.
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final Token.Source source;
+    private final SymbolTable table;
+    private byte[] types;
+    private byte[] kinds;
+    private int[] starts;
+    private int[] lengths;
+    private int[] symbols;
+    private int size = 0;
+
+    public TokenBuffer(Token.Source source) {
+        this(source, null, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a buffer whose identifiers may be interned into the given table,
+     * which may be {@code null} if none are.
+     */
+    public TokenBuffer(Token.Source source, SymbolTable table, int capacity) {
+        this.source = source;
+        this.table = table;
+        this.types = new byte[Math.max(capacity, 1)];
+        this.kinds = new byte[types.length];
+        this.starts = new int[types.length];
+        this.lengths = new int[types.length];
+        this.symbols = new int[types.length];
+    }
+
+    /**
+     * Appends a token covering {@code [start, start + length)} of the source.
+     */
+    public void add(Token.Type type, int start, int length) {
+        add(type, start, length, -1, TokenKind.NONE);
+    }
+
+    /**
+     * Appends a token as above with the given {@link SymbolTable} id, which is
+     * {@code -1} unless the token is an interned identifier, and {@link
+     * TokenKind}.
+     */
+    public void add(Token.Type type, int start, int length, int symbol, int kind) {
+        if (size == types.length) {
+            int capacity = types.length + (types.length >> 1) + 1;
+            types = Arrays.copyOf(types, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        kinds[size] = (byte) kind;
+        starts[size] = start;
+        lengths[size] = length;
+        symbols[size] = symbol;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.Type getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int getKind(int index) {
+        return kinds[index];
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public int getSymbol(int index) {
+        return symbols[index];
+    }
+
+    /**
+     * Builds the literal of the token at the given index.
+     */
+    public String getLiteral(int index) {
+        if (symbols[index] >= 0) {
+            return table.getName(symbols[index]);
+        }
+        return source.slice(starts[index], starts[index] + lengths[index]);
+    }
+
+    /**
+     * Decodes the value of the literal at the given index, as in {@link
+     * Token#getValue()}, or returns {@code null} for other tokens. Numbers are
+     * computed from the literal in a {@code long} when they fit.
+     */
+    public Object getValue(int index) {
+        return Token.decode(getType(index), getLiteral(index));
+    }
+
+    /**
+     * Returns true if the literal of the token at the given index is equal to
+     * the given text, without building the literal.
+     */
+    public boolean matches(int index, String literal) {
+        return lengths[index] == literal.length()
+                && source.matches(starts[index], starts[index] + lengths[index], literal);
+    }
+
+    /**
+     * Creates a {@link Token} for the token at the given index, for callers
+     * that need one.
+     */
+    public Token get(int index) {
+        if (symbols[index] >= 0) {
+            return new Token(getType(index), getLiteral(index), starts[index], symbols[index]);
+        }
+        return new Token(getType(index), source, starts[index], starts[index] + lengths[index], kinds[index]);
+    }
+
+}
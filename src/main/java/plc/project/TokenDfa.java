@@ -0,0 +1,145 @@
+package plc.project;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A deterministic finite automaton recognizing a single token, generated from
+ * the declarative description of the token grammar in {@link #STATES} and
+ * {@link #EDGES}.
+ *
+ * The automaton is held in flat tables: {@code transitions[state * COLUMNS +
+ * column]} is the next state (or {@code -1} if there is no edge), where the
+ * column is the character itself for ASCII and {@code 128} for everything
+ * else. Every class in the grammar either lists ASCII characters only or
+ * negates such a list, so all non-ASCII characters behave the same and can
+ * share one column.
+ *
+ * The lexer drives the automaton in one forward pass, remembering the last
+ * accepting state it passed through. The only time this is not the final state
+ * is a number followed by a {@code '.'} that is not followed by a digit, where
+ * the token ends one character before the dead state. Input which reaches no
+ * accepting state is not a token, and the lexer leaves it to the recursive
+ * descent lex methods, which report the error.
+ */
+public final class TokenDfa {
+
+    public static final int START = 0;
+
+    private static final int COLUMNS = 129;
+
+    /**
+     * The states of the automaton, one row per state: its name and the token
+     * type it accepts (or {@code null}).
+     */
+    private static final Object[][] STATES = {
+            {"START", null},
+            {"IDENTIFIER", Token.Type.IDENTIFIER},
+            {"MINUS", Token.Type.OPERATOR},
+            {"ZERO", Token.Type.INTEGER},
+            {"INTEGER", Token.Type.INTEGER},
+            {"POINT", null},
+            {"DECIMAL", Token.Type.DECIMAL},
+            {"CHARACTER_OPEN", null},
+            {"CHARACTER_ESCAPE", null},
+            {"CHARACTER_BODY", null},
+            {"CHARACTER", Token.Type.CHARACTER},
+            {"STRING_BODY", null},
+            {"STRING_ESCAPE", null},
+            {"STRING", Token.Type.STRING},
+            {"COMPARISON", Token.Type.OPERATOR},
+            {"AMPERSAND", Token.Type.OPERATOR},
+            {"PIPE", Token.Type.OPERATOR},
+            {"OPERATOR", Token.Type.OPERATOR},
+    };
+
+    /**
+     * The edges of the automaton as {from, character class, to}. When two edges
+     * from the same state overlap, the one listed first wins, which lets the
+     * final catch-all operator edge be written as "any other character".
+     */
+    private static final String[][] EDGES = {
+            {"START", "[A-Za-z_]", "IDENTIFIER"},
+            {"IDENTIFIER", "[A-Za-z0-9_]", "IDENTIFIER"},
+
+            {"START", "-", "MINUS"},
+            {"START", "0", "ZERO"},
+            {"START", "[1-9]", "INTEGER"},
+            {"MINUS", "0", "ZERO"},
+            {"MINUS", "[1-9]", "INTEGER"},
+            {"INTEGER", "[0-9]", "INTEGER"},
+            {"ZERO", "\\.", "POINT"},
+            {"INTEGER", "\\.", "POINT"},
+            {"POINT", "[0-9]", "DECIMAL"},
+            {"DECIMAL", "[0-9]", "DECIMAL"},
+
+            {"START", "'", "CHARACTER_OPEN"},
+            {"CHARACTER_OPEN", "[^'\\\\]", "CHARACTER_BODY"},
+            {"CHARACTER_OPEN", "\\\\", "CHARACTER_ESCAPE"},
+            {"CHARACTER_ESCAPE", "[bnrt'\"\\\\]", "CHARACTER_BODY"},
+            {"CHARACTER_BODY", "'", "CHARACTER"},
+
+            {"START", "\"", "STRING_BODY"},
+            {"STRING_BODY", "\"", "STRING"},
+            {"STRING_BODY", "\\\\", "STRING_ESCAPE"},
+            {"STRING_BODY", "[^\"\\\\]", "STRING_BODY"},
+            {"STRING_ESCAPE", "[bnrt'\"\\\\]", "STRING_BODY"},
+
+            {"START", "[<>!=]", "COMPARISON"},
+            {"COMPARISON", "=", "OPERATOR"},
+            {"START", "&", "AMPERSAND"},
+            {"AMPERSAND", "&", "OPERATOR"},
+            {"START", "\\|", "PIPE"},
+            {"PIPE", "\\|", "OPERATOR"},
+            {"START", "[^ \\t\\r\\n]", "OPERATOR"},
+    };
+
+    private static final TokenDfa INSTANCE = new TokenDfa();
+
+    private final int[] transitions;
+    private final Token.Type[] accepts;
+
+    private TokenDfa() {
+        Map<String, Integer> states = new HashMap<>();
+        accepts = new Token.Type[STATES.length];
+        for (int i = 0; i < STATES.length; i++) {
+            states.put((String) STATES[i][0], i);
+            accepts[i] = (Token.Type) STATES[i][1];
+        }
+        transitions = new int[STATES.length * COLUMNS];
+        Arrays.fill(transitions, -1);
+        for (String[] edge : EDGES) {
+            int from = states.get(edge[0]);
+            int to = states.get(edge[2]);
+            CharClass characters = CharClass.compile(edge[1]);
+            for (int column = 0; column < COLUMNS; column++) {
+                char c = column < 128 ? (char) column : '\u0080';
+                if (transitions[from * COLUMNS + column] == -1 && characters.matches(c)) {
+                    transitions[from * COLUMNS + column] = to;
+                }
+            }
+        }
+    }
+
+    public static TokenDfa get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the state reached from {@code state} on the character, or
+     * {@code -1} if there is no such edge.
+     */
+    public int next(int state, char c) {
+        return transitions[state * COLUMNS + (c < 128 ? c : 128)];
+    }
+
+    /**
+     * Returns the token type accepted in this state, or {@code null} if the
+     * state is not accepting.
+     */
+    public Token.Type accepts(int state) {
+        return accepts[state];
+    }
+
+}
@@ -0,0 +1,209 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * The int kinds of keywords and operators, which the lexer attaches to tokens
+ * so the parser can dispatch on an int instead of comparing literals. Keyword
+ * kinds are the reserved {@link SymbolTable} ids, so an interned keyword's
+ * symbol and kind are the same. Tokens of any other kind (identifiers that are
+ * not keywords, literals and unknown operators) have the kind {@link #NONE}.
+ *
+ * Keywords are recognized with a minimal perfect hash in the style of gperf:
+ * the length plus an associated value for the first and last characters,
+ * modulo the number of keywords, gives every keyword a distinct slot. A word
+ * is then a keyword only if it equals the one keyword in its slot, so
+ * classifying an identifier costs one table lookup and at most one
+ * comparison. The associated values were found by search, and the slots are
+ * checked to be distinct when the class is initialized.
+ */
+public final class TokenKind {
+
+    public static final int NONE = -1;
+
+    public static final int LET = SymbolTable.LET;
+    public static final int CONST = SymbolTable.CONST;
+    public static final int DEF = SymbolTable.DEF;
+    public static final int DO = SymbolTable.DO;
+    public static final int END = SymbolTable.END;
+    public static final int IF = SymbolTable.IF;
+    public static final int ELSE = SymbolTable.ELSE;
+    public static final int FOR = SymbolTable.FOR;
+    public static final int IN = SymbolTable.IN;
+    public static final int WHILE = SymbolTable.WHILE;
+    public static final int RETURN = SymbolTable.RETURN;
+    public static final int NIL = SymbolTable.NIL;
+    public static final int TRUE = SymbolTable.TRUE;
+    public static final int FALSE = SymbolTable.FALSE;
+
+    public static final int PLUS = 14;
+    public static final int MINUS = 15;
+    public static final int STAR = 16;
+    public static final int SLASH = 17;
+    public static final int DOT = 18;
+    public static final int COMMA = 19;
+    public static final int SEMICOLON = 20;
+    public static final int COLON = 21;
+    public static final int LEFT_PAREN = 22;
+    public static final int RIGHT_PAREN = 23;
+    public static final int EQUALS = 24;
+    public static final int EQUAL_EQUAL = 25;
+    public static final int NOT = 26;
+    public static final int NOT_EQUAL = 27;
+    public static final int LESS = 28;
+    public static final int LESS_EQUAL = 29;
+    public static final int GREATER = 30;
+    public static final int GREATER_EQUAL = 31;
+    public static final int AND = 32;
+    public static final int OR = 33;
+
+    /**
+     * The number of kinds, for tables indexed by kind.
+     */
+    public static final int COUNT = OR + 1;
+
+    private static final String[] NAMES = {
+            "LET", "CONST", "DEF", "DO", "END", "IF", "ELSE", "FOR", "IN", "WHILE", "RETURN", "NIL", "TRUE", "FALSE",
+            "+", "-", "*", "/", ".", ",", ";", ":", "(", ")", "=", "==", "!", "!=", "<", "<=", ">", ">=", "&&", "||"
+    };
+
+    private static final int KEYWORDS = FALSE + 1;
+    private static final int MIN_LENGTH = 2;
+    private static final int MAX_LENGTH = 6;
+
+    /**
+     * The associated value of each letter, indexed from {@code 'A'}. Letters
+     * that neither start nor end a keyword are left as zero.
+     */
+    private static final byte[] ASSOCIATED = new byte[26];
+    private static final int[] SLOTS = new int[KEYWORDS];
+
+    static {
+        String letters = "CDEFILNORTW";
+        byte[] values = {9, 2, 8, 9, 0, 8, 13, 13, 4, 7, 13};
+        for (int i = 0; i < values.length; i++) {
+            ASSOCIATED[letters.charAt(i) - 'A'] = values[i];
+        }
+        Arrays.fill(SLOTS, NONE);
+        for (int kind = 0; kind < KEYWORDS; kind++) {
+            String name = NAMES[kind];
+            int slot = hash(name.length(), name.charAt(0), name.charAt(name.length() - 1));
+            if (SLOTS[slot] != NONE) {
+                throw new AssertionError("Keyword hash collision: " + name + ", " + NAMES[SLOTS[slot]]);
+            }
+            SLOTS[slot] = kind;
+        }
+    }
+
+    private TokenKind() {}
+
+    /**
+     * Returns the kind of a token with the given type and literal, for tokens
+     * that were not classified by the lexer.
+     */
+    public static int of(Token.Type type, String literal) {
+        if (type == Token.Type.IDENTIFIER) {
+            return keyword(literal);
+        } else if (type == Token.Type.OPERATOR && literal.length() <= 2) {
+            return operator(literal.charAt(0), literal.length() == 2 ? literal.charAt(1) : 0);
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the keyword kind of the identifier {@code chars[start, end)}, or
+     * {@link #NONE} if it is not a keyword.
+     */
+    public static int keyword(char[] chars, int start, int end) {
+        int kind = candidate(end - start, chars[start], chars[end - 1]);
+        // the slot is taken modulo the number of keywords, so its keyword
+        // may have another length
+        if (kind == NONE || NAMES[kind].length() != end - start) {
+            return NONE;
+        }
+        String name = NAMES[kind];
+        for (int i = start; i < end; i++) {
+            if (chars[i] != name.charAt(i - start)) {
+                return NONE;
+            }
+        }
+        return kind;
+    }
+
+    /**
+     * Returns the keyword kind of the identifier, or {@link #NONE} if it is not
+     * a keyword.
+     */
+    public static int keyword(String identifier) {
+        int kind = candidate(identifier.length(), identifier.charAt(0), identifier.charAt(identifier.length() - 1));
+        return kind != NONE && NAMES[kind].equals(identifier) ? kind : NONE;
+    }
+
+    /**
+     * Returns the kind of the operator made of the given characters, where
+     * {@code second} is {@code 0} for a single character operator, or {@link
+     * #NONE} if it has no kind of its own.
+     */
+    public static int operator(char first, char second) {
+        if (second == 0) {
+            switch (first) {
+                case '+': return PLUS;
+                case '-': return MINUS;
+                case '*': return STAR;
+                case '/': return SLASH;
+                case '.': return DOT;
+                case ',': return COMMA;
+                case ';': return SEMICOLON;
+                case ':': return COLON;
+                case '(': return LEFT_PAREN;
+                case ')': return RIGHT_PAREN;
+                case '=': return EQUALS;
+                case '!': return NOT;
+                case '<': return LESS;
+                case '>': return GREATER;
+                default: return NONE;
+            }
+        }
+        switch (first) {
+            case '=': return second == '=' ? EQUAL_EQUAL : NONE;
+            case '!': return second == '=' ? NOT_EQUAL : NONE;
+            case '<': return second == '=' ? LESS_EQUAL : NONE;
+            case '>': return second == '=' ? GREATER_EQUAL : NONE;
+            case '&': return second == '&' ? AND : NONE;
+            case '|': return second == '|' ? OR : NONE;
+            default: return NONE;
+        }
+    }
+
+    /**
+     * Returns true if the kind is a keyword.
+     */
+    public static boolean isKeyword(int kind) {
+        return kind >= 0 && kind < KEYWORDS;
+    }
+
+    /**
+     * Returns the literal of a keyword or operator kind.
+     */
+    public static String getName(int kind) {
+        return NAMES[kind];
+    }
+
+    /**
+     * Returns the only keyword that could have the given length and first and
+     * last characters, or {@link #NONE} if there is none. The word still has
+     * to be compared against the candidate's name.
+     */
+    public static int candidate(int length, char first, char last) {
+        if (length < MIN_LENGTH || length > MAX_LENGTH
+                || first < 'A' || first > 'Z' || last < 'A' || last > 'Z') {
+            return NONE;
+        }
+        return SLOTS[hash(length, first, last)];
+    }
+
+    private static int hash(int length, char first, char last) {
+        return (length + ASSOCIATED[first - 'A'] + ASSOCIATED[last - 'A']) % KEYWORDS;
+    }
+
+}
@@ -0,0 +1,160 @@
+package plc.project;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded single-producer/single-consumer ring of tokens, which lets a
+ * {@link Lexer} on one thread hand tokens to a {@link Parser} on another as
+ * they are lexed (see {@link Lexer#lexAsync}). Tokens are addressed by their
+ * sequence number from the start of the input, so the parser can look ahead
+ * and behind as with a list, within the tokens it has not yet released.
+ *
+ * Each side writes only its own counter and keeps a cached copy of the other
+ * side's, so the volatile counter is only read again when the cached value
+ * says the ring is full (or empty). A side that must wait spins briefly, then
+ * yields and finally parks, since the other side may share its core.
+ *
+ * The producer ends the ring by {@link #close() closing} it, or by {@link
+ * #fail(Throwable) failing} it with the error lexing threw, which the
+ * consumer then throws once it reaches the end of the tokens before the
+ * error. The consumer can {@link #cancel()} the ring to stop the producer
+ * early, such as when parsing fails first.
+ */
+public final class TokenRing {
+
+    private static final int SPINS = 64;
+    private static final int YIELDS = 128;
+    private static final long PARK_NANOS = 20_000;
+
+    private final Token[] slots;
+    private final int mask;
+
+    private volatile long published = 0;
+    private volatile long released = 0;
+    private volatile boolean closed = false;
+    private volatile boolean cancelled = false;
+    private volatile Throwable failure;
+
+    // only accessed by the producer
+    private long producerPublished = 0;
+    private long releasedCache = 0;
+
+    // only accessed by the consumer
+    private long publishedCache = 0;
+
+    /**
+     * Creates a ring holding up to the given number of tokens, rounded up to a
+     * power of two.
+     */
+    public TokenRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new Token[size];
+        this.mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Adds the token to the ring, waiting while it is full. Returns false if
+     * the consumer has cancelled the ring, in which case the producer should
+     * stop.
+     */
+    public boolean put(Token token) {
+        long sequence = producerPublished;
+        if (sequence - releasedCache == slots.length) {
+            for (int idle = 0; sequence - (releasedCache = released) == slots.length; idle++) {
+                if (cancelled) {
+                    return false;
+                }
+                idle(idle);
+            }
+        }
+        slots[(int) sequence & mask] = token;
+        producerPublished = sequence + 1;
+        published = sequence + 1;
+        return !cancelled;
+    }
+
+    /**
+     * Ends the ring after the tokens put so far.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Ends the ring after the tokens put so far with the error that stopped
+     * the producer, which is either a {@link RuntimeException} or an {@link
+     * Error}.
+     */
+    public void fail(Throwable failure) {
+        if (!(failure instanceof RuntimeException || failure instanceof Error)) {
+            throw new IllegalArgumentException("Expected an unchecked failure, received " + failure + ".");
+        }
+        this.failure = failure;
+        closed = true;
+    }
+
+    /**
+     * Stops the producer, which sees this on its next {@link #put(Token)}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns true if there is a token with the given sequence number, waiting
+     * until it is put or the ring is closed. If the ring was failed and ends
+     * before the sequence, this throws the failure instead.
+     */
+    public boolean has(long sequence) {
+        if (sequence < publishedCache) {
+            return true;
+        }
+        for (int idle = 0; ; idle++) {
+            boolean ended = closed; // read before published, which it follows
+            if (sequence < (publishedCache = published)) {
+                return true;
+            } else if (ended) {
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                } else if (failure != null) {
+                    throw (RuntimeException) failure;
+                }
+                return false;
+            }
+            idle(idle);
+        }
+    }
+
+    /**
+     * Returns the token with the given sequence number, which must have been
+     * seen by {@link #has(long)} and not yet released.
+     */
+    public Token get(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    /**
+     * Releases the slots of every token before the given sequence number to
+     * the producer.
+     */
+    public void release(long sequence) {
+        if (sequence > released) {
+            released = sequence;
+        }
+    }
+
+    private static void idle(int idle) {
+        if (idle < SPINS) {
+            Thread.onSpinWait();
+        } else if (idle < YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package plc.project;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link RunScanner} which classifies as many characters per step as the
+ * preferred vector shape holds (16 with AVX2, 32 with AVX-512), finishing the
+ * last partial vector with the scalar loop.
+ *
+ * Most identifiers and whitespace runs are only a few characters long, where
+ * loading a vector costs more than it saves, so the first {@link
+ * #SCALAR_PREFIX} characters are checked with the scalar loop before
+ * switching to vectors.
+ *
+ * Characters are compared as signed shorts, so anything at or above {@code
+ * 0x8000} is negative and falls outside every range tested below. This is
+ * correct since none of the runs include non-ASCII characters except string
+ * bodies, which only test for equality.
+ */
+public final class VectorRunScanner extends RunScanner {
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int SCALAR_PREFIX = 16;
+
+    @Override
+    public int scan(Run run, char[] chars, int from, int to) {
+        int prefix = Math.min(to, from + SCALAR_PREFIX);
+        from = super.scan(run, chars, from, prefix);
+        if (from < prefix) {
+            return from;
+        }
+        int step = SPECIES.length();
+        while (from + step <= to) {
+            ShortVector vector = ShortVector.fromCharArray(SPECIES, chars, from);
+            VectorMask<Short> end = matches(run, vector).not();
+            if (end.anyTrue()) {
+                return from + end.firstTrue();
+            }
+            from += step;
+        }
+        return super.scan(run, chars, from, to);
+    }
+
+    /**
+     * Scans bytes in the same way, with twice as many lanes. Bytes outside
+     * ASCII are negative, which already falls outside the whitespace and
+     * identifier ranges, and string bodies test for them explicitly.
+     */
+    @Override
+    public int scan(Run run, byte[] bytes, int from, int to) {
+        int prefix = Math.min(to, from + SCALAR_PREFIX);
+        from = super.scan(run, bytes, from, prefix);
+        if (from < prefix) {
+            return from;
+        }
+        int step = BYTE_SPECIES.length();
+        while (from + step <= to) {
+            ByteVector vector = ByteVector.fromArray(BYTE_SPECIES, bytes, from);
+            VectorMask<Byte> end = matches(run, vector).not();
+            if (end.anyTrue()) {
+                return from + end.firstTrue();
+            }
+            from += step;
+        }
+        return super.scan(run, bytes, from, to);
+    }
+
+    private static VectorMask<Short> matches(Run run, ShortVector vector) {
+        switch (run) {
+            case WHITESPACE:
+                return vector.eq((short) ' ')
+                        .or(vector.eq((short) '\t'))
+                        .or(vector.eq((short) '\r'))
+                        .or(vector.eq((short) '\n'));
+            case IDENTIFIER:
+                ShortVector lower = vector.or((short) 0x20);
+                return lower.compare(VectorOperators.GE, (short) 'a').and(lower.compare(VectorOperators.LE, (short) 'z'))
+                        .or(vector.compare(VectorOperators.GE, (short) '0').and(vector.compare(VectorOperators.LE, (short) '9')))
+                        .or(vector.eq((short) '_'));
+            case STRING_BODY:
+                return vector.compare(VectorOperators.NE, (short) '"')
+                        .and(vector.compare(VectorOperators.NE, (short) '\\'));
+            default:
+                throw new AssertionError(run);
+        }
+    }
+
+    private static VectorMask<Byte> matches(Run run, ByteVector vector) {
+        switch (run) {
+            case WHITESPACE:
+                return vector.eq((byte) ' ')
+                        .or(vector.eq((byte) '\t'))
+                        .or(vector.eq((byte) '\r'))
+                        .or(vector.eq((byte) '\n'));
+            case IDENTIFIER:
+                ByteVector lower = vector.or((byte) 0x20);
+                return lower.compare(VectorOperators.GE, (byte) 'a').and(lower.compare(VectorOperators.LE, (byte) 'z'))
+                        .or(vector.compare(VectorOperators.GE, (byte) '0').and(vector.compare(VectorOperators.LE, (byte) '9')))
+                        .or(vector.eq((byte) '_'));
+            case STRING_BODY:
+                return vector.compare(VectorOperators.GE, (byte) 0)
+                        .and(vector.compare(VectorOperators.NE, (byte) '"'))
+                        .and(vector.compare(VectorOperators.NE, (byte) '\\'));
+            default:
+                throw new AssertionError(run);
+        }
+    }
+
+}
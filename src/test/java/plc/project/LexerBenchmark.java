@@ -0,0 +1,451 @@
+package plc.project;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongSupplier;
+
+/**
+ * Plain-timer benchmarks for the lexer. These are run through {@link #main}
+ * rather than as part of the test suite, and lex a generated multi-megabyte
+ * source, reporting the best of several runs after a warmup.
+ */
+public final class LexerBenchmark {
+
+    private static final int RUNS = 5;
+    private static final String SAMPLE = "LET counter = 0;\n" + Sources.METHOD;
+
+    private static long sink;
+
+    /**
+     * Runs the in-memory benchmarks on a corpus of the given size (default
+     * 8MB), or with {@code file <string|mapped> <path>} lexes a file one way and
+     * reports wall time and peak RSS. The file benchmark should be run once per
+     * mode in a fresh JVM so the RSS figures are comparable.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("file")) {
+            benchmarkFile(args[1], Paths.get(args[2]));
+            return;
+        }
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 8 << 20;
+        String source = corpus(size);
+        System.out.printf("corpus: %,d chars%n", source.length());
+        benchmarkClassification(source);
+        benchmarkLex(source);
+        benchmarkBytes(source);
+        benchmarkMemory(source);
+        benchmarkParallel(source);
+        benchmarkRuns();
+        benchmarkKeywords();
+        benchmarkDiagnostics();
+        benchmarkEscapes();
+        benchmarkNumbers();
+        benchmarkLines(source);
+        if (sink == 42) {
+            System.out.println(); // keeps the results observable to the JIT
+        }
+    }
+
+    /**
+     * Compares testing characters through {@code String.matches}, which is what
+     * {@link Lexer#peek(String...)} used to do, against a precompiled {@link
+     * CharClass}. The regex path is run on a smaller slice since it is several
+     * orders of magnitude slower.
+     */
+    private static void benchmarkClassification(String source) {
+        String[] patterns = {"[ \t\r\n]", "[A-Za-z0-9_]", "[0-9]"};
+        CharClass[] classes = new CharClass[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            classes[i] = CharClass.compile(patterns[i]);
+        }
+        String slice = source.substring(0, Math.min(source.length(), 1 << 18));
+        report("regex matches", slice.length() * patterns.length, "checks", () -> {
+            long count = 0;
+            for (int i = 0; i < slice.length(); i++) {
+                for (String pattern : patterns) {
+                    count += String.valueOf(slice.charAt(i)).matches(pattern) ? 1 : 0;
+                }
+            }
+            return count;
+        });
+        report("CharClass matches", (long) source.length() * patterns.length, "checks", () -> {
+            long count = 0;
+            for (int i = 0; i < source.length(); i++) {
+                for (CharClass c : classes) {
+                    count += c.matches(source.charAt(i)) ? 1 : 0;
+                }
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Lexes the same corpus with each {@link Lexer.Mode}.
+     */
+    private static void benchmarkLex(String source) {
+        long tokens = new Lexer(source).lex().size();
+        for (Lexer.Mode mode : Lexer.Mode.values()) {
+            report("Lexer.lex() " + mode, tokens, "tokens", () -> new Lexer(source, mode).lex().size());
+        }
+    }
+
+    /**
+     * Lexes the UTF-8 bytes of the corpus by decoding them into a string first,
+     * as callers had to before, against lexing them directly with a {@link
+     * ByteCharStream}.
+     */
+    private static void benchmarkBytes(String source) {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        long tokens = new Lexer(source).lex().size();
+        for (Lexer.Mode mode : Lexer.Mode.values()) {
+            report("decode + lex " + mode, tokens, "tokens",
+                    () -> new Lexer(new String(bytes, StandardCharsets.UTF_8), mode).lex().size());
+            report("ByteCharStream " + mode, tokens, "tokens", () -> new Lexer(bytes, mode).lex().size());
+        }
+    }
+
+    /**
+     * Lexes the corpus with {@link Lexer#lexParallel} on pools of 1 to 16
+     * threads, using four chunks per thread to even out the work.
+     */
+    private static void benchmarkParallel(String source) {
+        long tokens = new Lexer(source).lex().size();
+        for (int threads : new int[] {1, 2, 4, 8, 16}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                report("lexParallel " + threads + " threads", tokens, "tokens",
+                        () -> new Lexer(source).lexParallel(pool, threads * 4).size());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Compares the scalar {@link RunScanner} against {@link RunScanner#get()}
+     * (the vector scanner when the module is available) on identifier-heavy
+     * and string-heavy corpora, then lexes both corpora.
+     */
+    private static void benchmarkRuns() {
+        String identifiers = "some_long_identifier_name_1234 anotherIdentifierHere_x ".repeat(100_000);
+        String strings = ("\"" + "a fairly long string literal body ".repeat(6) + "with \\\"an escape\" ").repeat(20_000);
+        System.out.println("scanner: " + RunScanner.get().getClass().getSimpleName());
+        benchmarkRun("identifiers", identifiers, RunScanner.Run.IDENTIFIER);
+        benchmarkRun("strings", strings, RunScanner.Run.STRING_BODY);
+    }
+
+    private static void benchmarkRun(String name, String source, RunScanner.Run run) {
+        char[] chars = source.toCharArray();
+        for (RunScanner scanner : new RunScanner[] {new RunScanner(), RunScanner.get()}) {
+            String label = name + " " + (scanner.getClass() == RunScanner.class ? "scalar" : "vector");
+            report(label, chars.length, "chars", () -> {
+                long runs = 0;
+                int index = 0;
+                while (index < chars.length) {
+                    index = scanner.scan(run, chars, index, chars.length) + 1;
+                    runs++;
+                }
+                return runs;
+            });
+        }
+        long tokens = new Lexer(source).lex().size();
+        report(name + " Lexer.lex()", tokens, "tokens", () -> new Lexer(source).lex().size());
+    }
+
+    /**
+     * Classifies the identifiers of a keyword-dense source by comparing each
+     * against every keyword with {@code String.equals}, as the parser's
+     * keyword matching used to, against the {@link TokenKind} perfect hash,
+     * then lexes the source, which now includes classifying every token.
+     */
+    private static void benchmarkKeywords() {
+        String source = "IF x != NIL DO RETURN TRUE; ELSE LET y = FALSE; END WHILE y DO FOR i IN z DO END END\n"
+                .repeat(50_000);
+        List<String> identifiers = new ArrayList<>();
+        for (Token token : new Lexer(source).lex()) {
+            if (token.getType() == Token.Type.IDENTIFIER) {
+                identifiers.add(new String(token.getLiteral()));
+            }
+        }
+        String[] keywords = new String[TokenKind.FALSE + 1];
+        for (int i = 0; i < keywords.length; i++) {
+            keywords[i] = TokenKind.getName(i);
+        }
+        report("keywords String.equals", identifiers.size(), "identifiers", () -> {
+            long count = 0;
+            for (String identifier : identifiers) {
+                for (int i = 0; i < keywords.length; i++) {
+                    if (keywords[i].equals(identifier)) {
+                        count += i;
+                        break;
+                    }
+                }
+            }
+            return count;
+        });
+        report("keywords perfect hash", identifiers.size(), "identifiers", () -> {
+            long count = 0;
+            for (String identifier : identifiers) {
+                count += TokenKind.keyword(identifier);
+            }
+            return count;
+        });
+        long tokens = new Lexer(source).lex().size();
+        report("keywords Lexer.lex()", tokens, "tokens", () -> new Lexer(source).lex().size());
+    }
+
+    /**
+     * Lints many small files in which about one token in ten is a malformed
+     * literal, finding every error. With exceptions, this means catching each
+     * {@link ParseException} and lexing again from just past its index; with
+     * {@link Diagnostics} (reused across files), it is one pass per file.
+     */
+    private static void benchmarkDiagnostics() {
+        String[] errors = {"'ab'", "\"bad \\q escape\"", "''"};
+        Random random = new Random(12);
+        List<String> files = new ArrayList<>();
+        long tokens = 0;
+        for (int i = 0; i < 5_000; i++) {
+            StringBuilder file = new StringBuilder();
+            for (Token token : new Lexer(SAMPLE).lex()) {
+                file.append(random.nextInt(10) == 0 ? errors[random.nextInt(errors.length)] : token.getLiteral()).append(' ');
+                tokens++;
+            }
+            files.add(file.toString());
+        }
+        report("errors ParseException", tokens, "tokens", () -> {
+            long count = 0;
+            for (String file : files) {
+                int start = 0;
+                while (true) {
+                    try {
+                        count += new Lexer(file.substring(start)).lex().size();
+                        break;
+                    } catch (ParseException e) {
+                        count++;
+                        start = Math.min(file.length(), start + e.getIndex() + 1);
+                    }
+                }
+            }
+            return count;
+        });
+        Diagnostics diagnostics = new Diagnostics();
+        report("errors Diagnostics", tokens, "tokens", () -> {
+            long count = 0;
+            for (String file : files) {
+                diagnostics.clear();
+                count += new Lexer(file).withDiagnostics(diagnostics).lex().size() + diagnostics.size();
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Decodes the string literals of an escape-heavy source with the chain of
+     * {@code String.replace} calls the parser used to make, against {@link
+     * Token#getValue()}, which decodes each literal in one pass.
+     */
+    private static void benchmarkEscapes() {
+        String source = "\"line one\\n\\tindented \\\"quoted\\\" back\\\\slash\\r\\n\" 'x' '\\t' ".repeat(50_000);
+        List<Token> tokens = new Lexer(source).lex();
+        report("escapes String.replace", tokens.size(), "literals", () -> {
+            long length = 0;
+            for (Token token : tokens) {
+                String str = token.getLiteral();
+                str = str.substring(1, str.length() - 1);
+                if (str.contains("\\")) {
+                    str = str.replace("\\n", "\n")
+                            .replace("\\t", "\t")
+                            .replace("\\b", "\b")
+                            .replace("\\r", "\r")
+                            .replace("\\'", "'")
+                            .replace("\\\\", "\\")
+                            .replace("\\\"", "\"");
+                }
+                length += str.length();
+            }
+            return length;
+        });
+        report("escapes Token.decode", tokens.size(), "literals", () -> {
+            long length = 0;
+            for (Token token : tokens) {
+                length += Token.decode(token.getType(), token.getLiteral()).hashCode();
+            }
+            return length;
+        });
+    }
+
+    /**
+     * Compares building the values of the numbers in arithmetic-heavy code by
+     * parsing their text into a {@code BigInteger} or {@code BigDecimal}, which
+     * the parser used to do, against {@link Token#getValue()}, which builds
+     * them from the {@code long} computed by {@link Lexer#lexNumber()}. Both
+     * lex the source each run, since tokens keep their value once built.
+     */
+    private static void benchmarkNumbers() {
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(14);
+        while (builder.length() < 1 << 22) {
+            builder.append("x = ").append(random.nextInt(100)).append(" * y + ").append(random.nextInt(1 << 20))
+                    .append(" - ").append(random.nextInt(1000)).append('.').append(random.nextInt(100)).append(";\n");
+        }
+        String source = builder.toString();
+        long numbers = new Lexer(source).lex().stream().filter(t -> t.getType() == Token.Type.INTEGER || t.getType() == Token.Type.DECIMAL).count();
+        report("numbers from text", numbers, "numbers", () -> {
+            long hash = 0;
+            for (Token token : new Lexer(source).lex()) {
+                if (token.getType() == Token.Type.INTEGER) {
+                    hash += new BigInteger(token.getLiteral()).hashCode();
+                } else if (token.getType() == Token.Type.DECIMAL) {
+                    hash += new BigDecimal(token.getLiteral()).hashCode();
+                }
+            }
+            return hash;
+        });
+        report("numbers from long", numbers, "numbers", () -> {
+            long hash = 0;
+            for (Token token : new Lexer(source).lex()) {
+                if (token.getType() == Token.Type.INTEGER || token.getType() == Token.Type.DECIMAL) {
+                    hash += token.getValue().hashCode();
+                }
+            }
+            return hash;
+        });
+    }
+
+    /**
+     * Compares lexing and then finding the line and column of a hundred
+     * positions spread over the source, as when showing diagnostics, by
+     * scanning the source again, as our tools used to, against recording the
+     * newlines into a {@link LineMap} while lexing. Lexing alone is the
+     * baseline.
+     */
+    private static void benchmarkLines(String source) {
+        long tokens = new Lexer(source).lex().size();
+        int[] positions = new int[100];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = (int) ((long) source.length() * i / positions.length);
+        }
+        report("lex without lines", tokens, "tokens", () -> new Lexer(source).lex().size());
+        report("lines by rescanning", tokens, "tokens", () -> {
+            long hash = new Lexer(source).lex().size();
+            int line = 1, start = 0, i = 0;
+            for (int position : positions) {
+                for (; i < position; i++) {
+                    if (source.charAt(i) == '\n') {
+                        line++;
+                        start = i + 1;
+                    }
+                }
+                hash += line * 31L + position - start;
+            }
+            return hash;
+        });
+        report("lines from LineMap", tokens, "tokens", () -> {
+            LineMap lines = new LineMap();
+            long hash = new Lexer(source).withLines(lines).lex().size();
+            for (int position : positions) {
+                hash += lines.getLine(position) * 31L + lines.getColumn(position) - 1;
+            }
+            return hash;
+        });
+    }
+
+    /**
+     * Compares the retained heap of the tokens as a {@code List<Token>} against
+     * a {@link TokenBuffer}, both lexed from the same string. The literals of
+     * the list are requested so it holds what the parser would make it hold.
+     */
+    private static void benchmarkMemory(String source) {
+        long baseline = usedMemory();
+        List<Token> list = new Lexer(source).lex();
+        list.forEach(Token::getLiteral);
+        long listBytes = usedMemory() - baseline;
+        System.out.printf("%-28s %10.1f bytes/token%n", "List<Token> heap", (double) listBytes / list.size());
+        sink += list.size();
+        list = null;
+
+        baseline = usedMemory();
+        TokenBuffer buffer = new Lexer(source, Lexer.Mode.DFA).lexBuffer();
+        long bufferBytes = usedMemory() - baseline;
+        System.out.printf("%-28s %10.1f bytes/token%n", "TokenBuffer heap", (double) bufferBytes / buffer.size());
+        sink += buffer.size();
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Lexes a file either by reading it into a String or by mapping it, without
+     * requesting any literals, as a syntax check or indexer would.
+     */
+    private static void benchmarkFile(String mode, Path path) throws IOException {
+        long start = System.nanoTime();
+        List<Token> tokens;
+        if (mode.equals("mapped")) {
+            tokens = Lexer.map(path).lex();
+        } else {
+            tokens = new Lexer(Files.readString(path)).lex();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%s: %,d tokens in %.2f ms, %s%n", mode, tokens.size(), elapsed / 1e6, peakRss());
+    }
+
+    /**
+     * Returns the peak resident set size of this process as reported by Linux,
+     * or a placeholder elsewhere.
+     */
+    private static String peakRss() throws IOException {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.exists(status)) {
+            return "peak RSS unavailable";
+        }
+        return Files.readAllLines(status).stream()
+                .filter(line -> line.startsWith("VmHWM:"))
+                .map(line -> "peak RSS " + line.substring("VmHWM:".length()).trim())
+                .findFirst()
+                .orElse("peak RSS unavailable");
+    }
+
+    /**
+     * Builds a source of at least the given number of characters by repeating
+     * {@link #SAMPLE}.
+     */
+    static String corpus(int size) {
+        StringBuilder builder = new StringBuilder(size + SAMPLE.length());
+        while (builder.length() < size) {
+            builder.append(SAMPLE);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Runs the benchmark once as a warmup and then {@link #RUNS} times, printing
+     * the throughput of the fastest run.
+     */
+    static void report(String name, long units, String unit, LongSupplier benchmark) {
+        sink += benchmark.getAsLong();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            sink += benchmark.getAsLong();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-28s %10.2f ms %14.0f %s/sec%n", name, best / 1e6, units / (best / 1e9), unit);
+    }
+
+}
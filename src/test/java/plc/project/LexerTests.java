@@ -4,10 +4,25 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 public class LexerTests {
@@ -129,6 +144,436 @@ public class LexerTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testCharClass(String test, String pattern) {
+        CharClass compiled = CharClass.compile(pattern);
+        for (char c = 0; c < 512; c++) {
+            Assertions.assertEquals(String.valueOf(c).matches(pattern), compiled.matches(c), "Character " + (int) c);
+        }
+    }
+
+    private static Stream<Arguments> testCharClass() {
+        return Stream.of(
+                Arguments.of("Range", "[A-Za-z0-9_]"),
+                Arguments.of("Negated", "[^'\\\\]"),
+                Arguments.of("Escaped", "\\."),
+                Arguments.of("Non-ASCII", "[\u00e0-\u00ff]")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testDfaMode(String test, String input) {
+        List<Token> expected;
+        try {
+            expected = new Lexer(input, Lexer.Mode.DESCENT).lex();
+        } catch (ParseException e) {
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> new Lexer(input, Lexer.Mode.DFA).lex());
+            Assertions.assertEquals(e.getMessage(), exception.getMessage());
+            Assertions.assertEquals(e.getIndex(), exception.getIndex());
+            return;
+        }
+        Assertions.assertEquals(expected, new Lexer(input, Lexer.Mode.DFA).lex());
+    }
+
+    private static Stream<Arguments> testDfaMode() {
+        return Stream.of(
+                Arguments.of("Declaration", "LET x = -5.25;"),
+                Arguments.of("Method Call", "obj.method(1.toString(), 'c', '\\'')"),
+                Arguments.of("Operators", "a<=b||c&&!d==e-f"),
+                Arguments.of("Leading Zero", "007"),
+                Arguments.of("Multiline String", "\"line\nline\\n\""),
+                Arguments.of("Unterminated String", "x = \"abc"),
+                Arguments.of("Invalid Escape", "\"a\\qb\""),
+                Arguments.of("Unterminated Escape", "\"a\\"),
+                Arguments.of("Invalid Character Escape", "'\\q'"),
+                Arguments.of("Decimal Point", "1."),
+                Arguments.of("Empty Character", "''"),
+                Arguments.of("Long Character", "'ab'")
+        );
+    }
+
+    @ParameterizedTest
+    @EnumSource(Lexer.Mode.class)
+    void testStreaming(Lexer.Mode mode) {
+        // long enough to cross several buffer refills, with a string literal
+        // larger than the buffer to force it to be carried over and grow
+        String input = LexerBenchmark.corpus(200_000) + "\"" + "x".repeat(100_000) + "\"";
+        List<Token> expected = new Lexer(input, mode).lex();
+        List<Token> actual = new ArrayList<>();
+        ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        new Lexer(channel, mode).iterator().forEachRemaining(actual::add);
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void testMapped() throws IOException {
+        String input = LexerBenchmark.corpus(100_000) + "\"caf\u00e9\"";
+        Path path = Files.createTempFile("lexer", ".plc");
+        try {
+            Files.writeString(path, input);
+            List<Token> expected = new Lexer(input).lex();
+            List<Token> actual = Lexer.map(path).lex();
+            Assertions.assertEquals(expected, actual);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Lexer.Mode.class)
+    void testBytes(Lexer.Mode mode) {
+        // DEFE and TRUET are in the keyword slots of DEF and TRUE
+        String input = LexerBenchmark.corpus(10_000)
+                + "\"caf\u00e9 \u20ac \ud83d\ude00\" '\u00e9' '\u20ac' \u00e9 x\u20acy DEFE TRUET";
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        List<Token> expected = new Lexer(input, mode).lex();
+        List<Token> actual = new Lexer(bytes, mode).lex();
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Token token = expected.get(i);
+            int index = input.substring(0, token.getIndex()).getBytes(StandardCharsets.UTF_8).length;
+            Assertions.assertEquals(new Token(token.getType(), token.getLiteral(), index), actual.get(i));
+            Assertions.assertEquals(token.getKind(), actual.get(i).getKind());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testBytesException(String test, byte[] input, int index) {
+        for (Lexer.Mode mode : Lexer.Mode.values()) {
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> new Lexer(input, mode).lex());
+            Assertions.assertEquals("Invalid UTF-8 sequence", exception.getMessage(), mode.toString());
+            Assertions.assertEquals(index, exception.getIndex(), mode.toString());
+        }
+    }
+
+    private static Stream<Arguments> testBytesException() {
+        return Stream.of(
+                Arguments.of("Stray Continuation", new byte[] {'"', 'a', (byte) 0x80, '"'}, 2),
+                Arguments.of("Invalid Lead", new byte[] {'x', ' ', (byte) 0xFF}, 2),
+                Arguments.of("Truncated", new byte[] {'\'', (byte) 0xE2, (byte) 0x82, '\''}, 1),
+                Arguments.of("Overlong", new byte[] {'"', (byte) 0xC0, (byte) 0x80, '"'}, 1),
+                Arguments.of("Surrogate", new byte[] {'"', (byte) 0xED, (byte) 0xA0, (byte) 0x80, '"'}, 1),
+                Arguments.of("Out Of Range", new byte[] {'"', (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80, '"'}, 1)
+        );
+    }
+
+    @ParameterizedTest
+    @EnumSource(Lexer.Mode.class)
+    void testBuffer(Lexer.Mode mode) {
+        String input = LexerBenchmark.corpus(10_000);
+        List<Token> expected = new Lexer(input, mode).lex();
+        TokenBuffer buffer = new Lexer(input, mode).lexBuffer();
+        Assertions.assertEquals(expected.size(), buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            Assertions.assertEquals(expected.get(i), buffer.get(i));
+            Assertions.assertTrue(buffer.matches(i, expected.get(i).getLiteral()));
+        }
+    }
+
+    @Test
+    void testRelex() {
+        Random random = new Random(6);
+        String[] fragments = {"x", "1", ".", "5", " ", "\n", "=", "\"", "'", "\\", "(", "abc"};
+        // the document is edited in place, so the tokens must not depend on
+        // its earlier contents
+        StringBuilder document = new StringBuilder(LexerBenchmark.corpus(5_000));
+        SymbolTable symbols = new SymbolTable();
+        List<Token> tokens = new Lexer(document.toString()).withSymbols(symbols).lex();
+        for (int i = 0; i < 2_000; i++) {
+            // most edits are typed near the previous one, as in an editor
+            int offset = random.nextInt(4) > 0 && i > 0
+                    ? Math.min(document.length(), random.nextInt(document.length() / 50 + 1) + document.length() / 3)
+                    : random.nextInt(document.length() + 1);
+            int removed = random.nextInt(Math.min(3, document.length() - offset) + 1);
+            String inserted = random.nextBoolean() ? fragments[random.nextInt(fragments.length)] : "";
+            String before = document.toString();
+            document.replace(offset, offset + removed, inserted);
+            List<Token> expected;
+            List<Token> previous = tokens;
+            try {
+                expected = new Lexer(document.toString()).lex();
+            } catch (ParseException e) {
+                ParseException exception = Assertions.assertThrows(ParseException.class,
+                        () -> Lexer.relex(document, previous, offset, removed, inserted, symbols));
+                Assertions.assertEquals(e.getIndex(), exception.getIndex());
+                document.replace(offset, offset + inserted.length(), before.substring(offset, offset + removed));
+                continue;
+            }
+            List<Token> actual = Lexer.relex(document, tokens, offset, removed, inserted, symbols);
+            Assertions.assertEquals(expected, actual, "Edit " + i);
+            tokens = actual;
+        }
+    }
+
+    @Test
+    void testRelexSpread() {
+        // edits far apart each split a long run of previous tokens, until
+        // there are enough segments to flatten
+        Random random = new Random(7);
+        StringBuilder document = new StringBuilder(LexerBenchmark.corpus(1_000_000));
+        List<Token> tokens = new Lexer(document.toString()).lex();
+        for (int i = 0; i < 2_000; i++) {
+            int offset = tokens.get(random.nextInt(tokens.size())).getIndex();
+            document.insert(offset, ' ');
+            tokens = Lexer.relex(document, tokens, offset, 0, " ", null);
+        }
+        Assertions.assertEquals(new Lexer(document.toString()).lex(), tokens);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 7, 16, 61})
+    void testParallel(int chunks) {
+        // literals spanning lines, containing quotes of the other kind and
+        // escaped quotes make chunks likely to start inside a literal
+        String input = LexerBenchmark.corpus(20_000)
+                + "\"a\nb \\\" 'c' \\\\\" '\"' x\n".repeat(200);
+        List<Token> expected = new Lexer(input).lex();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assertions.assertEquals(expected, new Lexer(input).lexParallel(pool, chunks));
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> new Lexer(input + " \"unterminated").lexParallel(pool, chunks));
+            Assertions.assertEquals(input.length() + 14, exception.getIndex());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests that each way of lexing records every newline, including those
+     * inside literals and in chunks lexed in parallel, into its line map.
+     */
+    @ParameterizedTest
+    @EnumSource(Lexer.Mode.class)
+    void testLines(Lexer.Mode mode) {
+        String input = LexerBenchmark.corpus(5_000)
+                + "\"a\nb \\\" 'c' \\\\\" '\\n' '\n' x\r\n".repeat(100);
+        LineMap lines = new LineMap();
+        new Lexer(input, mode).withLines(lines).lex();
+        assertLines(input, lines);
+        lines = new LineMap();
+        new Lexer(input, mode).withLines(lines).lexBuffer();
+        assertLines(input, lines);
+        lines = new LineMap();
+        new Lexer(input.getBytes(StandardCharsets.UTF_8), mode).withLines(lines).lex();
+        assertLines(input, lines);
+        lines = new LineMap();
+        new Lexer(new StringReader(input), mode).withLines(lines).iterator().forEachRemaining(token -> {});
+        assertLines(input, lines);
+        lines = new LineMap();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new Lexer(input, mode).withLines(lines).lexParallel(pool, 7);
+        } finally {
+            pool.shutdown();
+        }
+        assertLines(input, lines);
+    }
+
+    @Test
+    void testLinesPosition() {
+        LineMap lines = new LineMap();
+        List<Token> tokens = new Lexer("x\r\n  \"a\nb\" y\n\nz").withLines(lines).lex();
+        Assertions.assertEquals(5, lines.getLineCount());
+        Assertions.assertEquals("1:1", lines.format(tokens.get(0).getIndex()));
+        Assertions.assertEquals("2:3", lines.format(tokens.get(1).getIndex()));
+        Assertions.assertEquals("3:4", lines.format(tokens.get(2).getIndex()));
+        Assertions.assertEquals("5:1", lines.format(tokens.get(3).getIndex()));
+        Assertions.assertEquals(3, lines.getLineStart(2));
+    }
+
+    private static void assertLines(String input, LineMap lines) {
+        int line = 1, start = 0;
+        for (int i = 0; i < input.length(); i++) {
+            Assertions.assertEquals(line, lines.getLine(i), "line at " + i);
+            Assertions.assertEquals(i - start + 1, lines.getColumn(i), "column at " + i);
+            if (input.charAt(i) == '\n') {
+                line++;
+                start = i + 1;
+            }
+        }
+        Assertions.assertEquals(line, lines.getLineCount());
+    }
+
+    @ParameterizedTest
+    @EnumSource(RunScanner.Run.class)
+    void testRunScanner(RunScanner.Run run) {
+        Random random = new Random(8);
+        char[] alphabet = " \t\r\nazAZ09_\"\\'.\u00e9\u8000".toCharArray();
+        char[] chars = new char[4096];
+        for (int i = 0; i < chars.length; i++) {
+            // long runs of a single kind so vectorized steps are exercised
+            chars[i] = random.nextInt(8) == 0 ? alphabet[random.nextInt(alphabet.length)] : i > 0 ? chars[i - 1] : 'a';
+        }
+        byte[] bytes = new String(chars).getBytes(StandardCharsets.UTF_8);
+        RunScanner scalar = new RunScanner();
+        for (int from = 0; from < chars.length; from += random.nextInt(7) + 1) {
+            Assertions.assertEquals(scalar.scan(run, chars, from, chars.length), RunScanner.get().scan(run, chars, from, chars.length));
+            Assertions.assertEquals(scalar.scan(run, bytes, from, bytes.length), RunScanner.get().scan(run, bytes, from, bytes.length));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Lexer.Mode.class)
+    void testSymbols(Lexer.Mode mode) {
+        SymbolTable symbols = new SymbolTable();
+        List<Token> first = new Lexer("LET name = other.name;", mode).withSymbols(symbols).lex();
+        List<Token> second = new Lexer("name RETURN", mode).withSymbols(symbols).lex();
+        Assertions.assertEquals(SymbolTable.LET, first.get(0).getSymbol());
+        Assertions.assertEquals(SymbolTable.RETURN, second.get(1).getSymbol());
+        Assertions.assertSame(first.get(1).getLiteral(), first.get(5).getLiteral());
+        Assertions.assertSame(first.get(1).getLiteral(), second.get(0).getLiteral());
+        Assertions.assertEquals(first.get(1).getSymbol(), second.get(0).getSymbol());
+        Assertions.assertEquals(-1, first.get(2).getSymbol());
+        Assertions.assertEquals(SymbolTable.FALSE + 3, symbols.size()); // reserved words, name and other
+        TokenBuffer buffer = new Lexer("other LET", mode).withSymbols(symbols).lexBuffer();
+        Assertions.assertEquals(first.get(3).getSymbol(), buffer.getSymbol(0));
+        Assertions.assertSame(first.get(3).getLiteral(), buffer.getLiteral(0));
+        Assertions.assertEquals(SymbolTable.LET, buffer.getSymbol(1));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Lexer.Mode.class)
+    void testKinds(Lexer.Mode mode) {
+        String keywords = "LET CONST DEF DO END IF ELSE FOR IN WHILE RETURN NIL TRUE FALSE";
+        List<Token> tokens = new Lexer(keywords, mode).lex();
+        for (int kind = 0; kind < tokens.size(); kind++) {
+            Assertions.assertEquals(kind, tokens.get(kind).getKind());
+            Assertions.assertEquals(kind, TokenKind.keyword(tokens.get(kind).getLiteral()));
+        }
+        // same length and first and last characters as keywords, or wrong case
+        for (Token token : new Lexer("LXT DEE Do let LETS NIL_ ELSE1 IFF X _", mode).lex()) {
+            Assertions.assertEquals(TokenKind.NONE, token.getKind(), token.toString());
+        }
+        // other lengths in the slot of a keyword they start, or which starts them
+        for (Token token : new Lexer("LE DEFE IFAT ENDAA TRUET WHILET", mode).lex()) {
+            Assertions.assertEquals(TokenKind.NONE, token.getKind(), token.toString());
+        }
+        List<Token> operators = new Lexer("+ - * / . , ; : ( ) = == ! != < <= > >= && || & | @", mode).lex();
+        for (int i = 0; i < operators.size(); i++) {
+            int expected = i < TokenKind.OR - TokenKind.PLUS + 1 ? TokenKind.PLUS + i : TokenKind.NONE;
+            Assertions.assertEquals(expected, operators.get(i).getKind(), operators.get(i).toString());
+            Assertions.assertEquals(expected, TokenKind.of(Token.Type.OPERATOR, operators.get(i).getLiteral()));
+        }
+        TokenBuffer buffer = new Lexer("x = TRUE;", mode).lexBuffer();
+        Assertions.assertEquals(TokenKind.NONE, buffer.getKind(0));
+        Assertions.assertEquals(TokenKind.EQUALS, buffer.getKind(1));
+        Assertions.assertEquals(TokenKind.TRUE, buffer.getKind(2));
+        Assertions.assertEquals(TokenKind.SEMICOLON, buffer.get(3).getKind());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Lexer.Mode.class)
+    void testDiagnostics(Lexer.Mode mode) {
+        Diagnostics diagnostics = new Diagnostics();
+        List<Token> tokens = new Lexer("x 'ab' \"bad \\q\" '' y \"unterminated", mode).withDiagnostics(diagnostics).lex();
+        Assertions.assertEquals(Arrays.asList(
+                new Token(Token.Type.IDENTIFIER, "x", 0),
+                new Token(Token.Type.ERROR, "'ab'", 2),
+                new Token(Token.Type.ERROR, "\"bad \\q\"", 7),
+                new Token(Token.Type.ERROR, "''", 16),
+                new Token(Token.Type.IDENTIFIER, "y", 19),
+                new Token(Token.Type.ERROR, "\"unterminated", 21)
+        ), tokens);
+        Assertions.assertEquals("[Expected closing quote for character literal@4, Invalid escape sequence: \\q@13, "
+                + "Invalid character literal content@17, Unterminated string literal@34]", diagnostics.toString());
+    }
+
+    @Test
+    void testDiagnosticsRandom() {
+        Random random = new Random(12);
+        String[] fragments = {"x", "1", ".", " ", "\n", "=", "\"", "'", "\\", "\\q", "\\n", "abc", "\u00e9"};
+        for (int i = 0; i < 2_000; i++) {
+            StringBuilder builder = new StringBuilder();
+            for (int j = random.nextInt(12); j >= 0; j--) {
+                builder.append(fragments[random.nextInt(fragments.length)]);
+            }
+            String input = builder.toString();
+            byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+            if (random.nextInt(4) == 0) {
+                bytes[random.nextInt(bytes.length)] = (byte) 0xFF;
+            }
+            String expected = null;
+            for (Lexer.Mode mode : Lexer.Mode.values()) {
+                Diagnostics diagnostics = new Diagnostics(1);
+                List<Token> tokens = new Lexer(bytes, mode).withDiagnostics(diagnostics).lex();
+                String actual = tokens + " " + diagnostics;
+                Assertions.assertEquals(expected == null ? actual : expected, actual, "Input " + i);
+                expected = actual;
+                try {
+                    Assertions.assertEquals(tokens, new Lexer(bytes, mode).lex());
+                    Assertions.assertEquals(0, diagnostics.size());
+                } catch (ParseException e) {
+                    Assertions.assertEquals(e.getIndex(), diagnostics.getIndex(0), "Input " + i);
+                }
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testValue(String test, String input, Object expected) {
+        Assertions.assertEquals(expected, new Lexer(input).lex().get(0).getValue());
+        Assertions.assertEquals(expected, new Lexer(input, Lexer.Mode.DFA).lexBuffer().getValue(0));
+    }
+
+    private static Stream<Arguments> testValue() {
+        return Stream.of(
+                Arguments.of("Character", "'c'", 'c'),
+                Arguments.of("Character Escape", "'\\n'", '\n'),
+                Arguments.of("Character Quote", "'\\''", '\''),
+                Arguments.of("String", "\"abc\"", "abc"),
+                Arguments.of("Empty String", "\"\"", ""),
+                Arguments.of("String Escapes", "\"\\b\\n\\r\\t\\'\\\"\\\\\"", "\b\n\r\t'\"\\"),
+                Arguments.of("Escaped Backslash Before Letter", "\"\\\\n\"", "\\n"),
+                Arguments.of("Identifier", "abc", null),
+                Arguments.of("Integer", "42", new BigInteger("42")),
+                Arguments.of("Negative Zero", "-0", BigInteger.ZERO),
+                Arguments.of("Uncached Integer", "-123456789", new BigInteger("-123456789")),
+                Arguments.of("Long Max", "9223372036854775807", BigInteger.valueOf(Long.MAX_VALUE)),
+                Arguments.of("Long Min", "-9223372036854775808", BigInteger.valueOf(Long.MIN_VALUE)),
+                Arguments.of("Long Overflow", "9223372036854775808", new BigInteger("9223372036854775808")),
+                Arguments.of("Integer Overflow", "-123456789012345678901234567890", new BigInteger("-123456789012345678901234567890")),
+                Arguments.of("Decimal", "1.50", new BigDecimal("1.50")),
+                Arguments.of("Negative Decimal", "-0.0", new BigDecimal("-0.0")),
+                Arguments.of("Decimal Overflow", "92233720368547758.080", new BigDecimal("92233720368547758.080")),
+                Arguments.of("19 Digits", "1000000000000000000", new BigInteger("1000000000000000000")),
+                Arguments.of("20 Digits", "10000000000000000000", new BigInteger("10000000000000000000")),
+                Arguments.of("39 Digits", "100000000000000000000000000000000000000", new BigInteger("100000000000000000000000000000000000000")),
+                Arguments.of("Negative 39 Digits", "-100000000000000000000000000000000000000", new BigInteger("-100000000000000000000000000000000000000")),
+                Arguments.of("19 Digit Decimal", "100000000000000000.0", new BigDecimal("100000000000000000.0")),
+                Arguments.of("20 Digit Decimal", "1000000000000000000.0", new BigDecimal("1000000000000000000.0")),
+                Arguments.of("39 Digit Decimal", "10000000000000000000000000000000000000.0", new BigDecimal("10000000000000000000000000000000000000.0")),
+                Arguments.of("39 Digit Fraction", "1.00000000000000000000000000000000000000", new BigDecimal("1.00000000000000000000000000000000000000"))
+        );
+    }
+
+    /**
+     * Tests that numbers decoded from the long computed while lexing equal
+     * those parsed from their text, including scale, around the bounds of the
+     * small-value cache and of a long.
+     */
+    @Test
+    void testValueRandom() {
+        Random random = new Random(14);
+        for (int i = 0; i < 2000; i++) {
+            String digits = Long.toString(random.nextLong() >>> 1 + random.nextInt(63));
+            digits += digits.equals("0") || random.nextBoolean() ? "" : random.nextInt(10);
+            String integer = (random.nextBoolean() ? "-" : "") + digits;
+            String decimal = integer.length() > 1 && integer.charAt(0) != '-' && random.nextBoolean()
+                    ? integer.substring(0, 1) + "." + integer.substring(1)
+                    : integer + "." + random.nextInt(1000);
+            Assertions.assertEquals(new BigInteger(integer), new Lexer(integer).lex().get(0).getValue(), integer);
+            Assertions.assertEquals(new BigDecimal(decimal), new Lexer(decimal).lex().get(0).getValue(), decimal);
+            Assertions.assertEquals(new BigDecimal(decimal), new Lexer(decimal, Lexer.Mode.DFA).lexBuffer().getValue(0), decimal);
+        }
+    }
+
     @Test
     void testException() {
         ParseException exception = Assertions.assertThrows(ParseException.class,
@@ -0,0 +1,546 @@
+package plc.project;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Plain-timer benchmarks for the parser, run through {@link #main} in the
+ * same way as {@link LexerBenchmark}, which does the reporting.
+ */
+public final class ParserBenchmark {
+
+    private static long sink;
+
+    /**
+     * Runs the benchmarks on a generated source of the given number of fields
+     * (default 400k, about 20MB).
+     */
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 400_000;
+        String source = Sources.fields(count);
+        System.out.printf("source: %,d chars, %,d fields%n", source.length(), count);
+        benchmarkPipeline(source, count);
+        benchmarkExpressions();
+        benchmarkAllocation();
+        benchmarkLazyBodies(Sources.methods(2_000_000));
+        benchmarkParallel(Sources.methods(2_900_000));
+        for (int size : new int[] {100_000, 1_000_000, 10_000_000}) {
+            benchmarkReparse(Sources.methods(size));
+        }
+        benchmarkFlat(Sources.methods(8 << 20));
+        benchmarkCodec(Sources.methods(8 << 20));
+    }
+
+    /**
+     * Compares lexing the whole source and then parsing it against parsing
+     * while the lexer runs on another thread. The overlap needs a second
+     * core to show.
+     */
+    private static void benchmarkPipeline(String source, int fields) {
+        LexerBenchmark.report("lex then parse", fields, "fields", () -> {
+            return new Parser(new Lexer(source).lex()).parseSource().getFields().size();
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            LexerBenchmark.report("pipelined parse", fields, "fields", () -> {
+                return Parser.parseSource(new Lexer(source), executor).getFields().size();
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * Parses deeply nested arithmetic mixing every precedence level with each
+     * {@link Parser.Mode}, from a token list lexed up front so only the
+     * expression parser is measured.
+     */
+    private static void benchmarkExpressions() {
+        String source = nested(10_000, 40);
+        List<Token> tokens = new Lexer(source).lex();
+        for (Parser.Mode mode : Parser.Mode.values()) {
+            LexerBenchmark.report("nested expressions " + mode, tokens.size(), "tokens", () -> {
+                return new Parser(tokens, mode).parseSource().getFields().size();
+            });
+        }
+    }
+
+    /**
+     * Compares the object tree with its {@link FlatAst} encoding, by the heap
+     * each retains per line of source, and by counting the nodes of the tree
+     * walking the objects and walking the flat encoding, and by scanning the
+     * flat nodes for binary operators, which needs no structure at all.
+     */
+    private static void benchmarkFlat(String source) {
+        long lines = source.chars().filter(c -> c == '\n').count();
+        List<Token> tokens = new Lexer(source).lex();
+        long before = usedHeap();
+        Ast.Source tree = new Parser(tokens).parseSource();
+        long objects = usedHeap() - before;
+        before = usedHeap();
+        FlatAst flat = FlatAst.of(tree);
+        long arrays = usedHeap() - before;
+        System.out.printf("%-28s %10.1f bytes/line%n", "heap object tree", (double) objects / lines);
+        System.out.printf("%-28s %10.1f bytes/line%n", "heap flat tree", (double) arrays / lines);
+
+        int nodes = flat.getNodeCount();
+        LexerBenchmark.report("count objects", nodes, "nodes", () -> {
+            long count = 0;
+            for (Ast.Field field : tree.getFields()) {
+                count += 1 + field.getValue().map(ParserBenchmark::count).orElse(0L);
+            }
+            for (Ast.Method method : tree.getMethods()) {
+                count += 1 + count(method.getStatements());
+            }
+            return count + 1;
+        });
+        LexerBenchmark.report("count flat walk", nodes, "nodes", () -> {
+            long[] count = {0};
+            flat.walk(flat.getRoot(), (ast, node) -> {
+                count[0]++;
+                return true;
+            });
+            return count[0];
+        });
+        LexerBenchmark.report("count flat scan binary", nodes, "nodes", () -> {
+            long count = 0;
+            for (int node = 0; node < flat.getNodeCount(); node++) {
+                count += flat.getKind(node) == FlatAst.BINARY ? 1 : 0;
+            }
+            return count;
+        });
+        LexerBenchmark.report("decode flat", nodes, "nodes", () -> {
+            return flat.toAst().getMethods().size();
+        });
+    }
+
+    /**
+     * Compares lexing and parsing a source against loading its tree from a
+     * cached {@link AstCodec} file, both reading only the signatures of its
+     * methods and reading their bodies, and against deserializing the tree
+     * with {@code java.io} through a {@link SerializedNode} copy of it (the
+     * tree itself is not serializable).
+     */
+    private static void benchmarkCodec(String source) throws IOException {
+        long lines = source.chars().filter(c -> c == '\n').count();
+        Ast.Source tree = new Parser(new Lexer(source).lex()).parseSource();
+        byte[] encoded = AstCodec.encode(tree);
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(serialized)) {
+            output.writeObject(SerializedNode.of(tree));
+        }
+        byte[] bytes = serialized.toByteArray();
+        System.out.printf("%-28s %10.1f bytes/line%n", "size codec", (double) encoded.length / lines);
+        System.out.printf("%-28s %10.1f bytes/line%n", "size java.io", (double) bytes.length / lines);
+
+        Path path = Files.createTempFile("parser", ".plca");
+        try {
+            Files.write(path, encoded);
+            LexerBenchmark.report("cold lex and parse", lines, "lines", () -> {
+                return new Parser(new Lexer(source).lex()).parseSource().getMethods().size();
+            });
+            LexerBenchmark.report("mapped signatures", lines, "lines", () -> {
+                return map(path).getMethods().size();
+            });
+            LexerBenchmark.report("mapped bodies", lines, "lines", () -> {
+                long count = 0;
+                for (Ast.Method method : map(path).getMethods()) {
+                    count += method.getStatements().size();
+                }
+                return count;
+            });
+            LexerBenchmark.report("java.io and decode", lines, "lines", () -> {
+                try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return ((SerializedNode) input.readObject()).toSource().getMethods().size();
+                } catch (IOException | ClassNotFoundException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static Ast.Source map(Path path) {
+        try {
+            return AstCodec.map(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long count(List<Ast.Statement> statements) {
+        long count = 0;
+        for (Ast.Statement statement : statements) {
+            count += count(statement);
+        }
+        return count;
+    }
+
+    private static long count(Ast.Statement statement) {
+        if (statement instanceof Ast.Statement.Expression) {
+            return 1 + count(((Ast.Statement.Expression) statement).getExpression());
+        } else if (statement instanceof Ast.Statement.Declaration) {
+            return 1 + ((Ast.Statement.Declaration) statement).getValue().map(ParserBenchmark::count).orElse(0L);
+        } else if (statement instanceof Ast.Statement.Assignment) {
+            Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) statement;
+            return 1 + count(assignment.getReceiver()) + count(assignment.getValue());
+        } else if (statement instanceof Ast.Statement.If) {
+            Ast.Statement.If ast = (Ast.Statement.If) statement;
+            return 1 + count(ast.getCondition()) + count(ast.getThenStatements()) + count(ast.getElseStatements());
+        } else if (statement instanceof Ast.Statement.For) {
+            Ast.Statement.For ast = (Ast.Statement.For) statement;
+            return 1 + count(ast.getValue()) + count(ast.getStatements());
+        } else if (statement instanceof Ast.Statement.While) {
+            Ast.Statement.While ast = (Ast.Statement.While) statement;
+            return 1 + count(ast.getCondition()) + count(ast.getStatements());
+        }
+        return 1 + count(((Ast.Statement.Return) statement).getValue());
+    }
+
+    private static long count(Ast.Expression expression) {
+        if (expression instanceof Ast.Expression.Group) {
+            return 1 + count(((Ast.Expression.Group) expression).getExpression());
+        } else if (expression instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) expression;
+            return 1 + count(binary.getLeft()) + count(binary.getRight());
+        } else if (expression instanceof Ast.Expression.Access) {
+            return 1 + ((Ast.Expression.Access) expression).getReceiver().map(ParserBenchmark::count).orElse(0L);
+        } else if (expression instanceof Ast.Expression.Function) {
+            Ast.Expression.Function function = (Ast.Expression.Function) expression;
+            long count = 1 + function.getReceiver().map(ParserBenchmark::count).orElse(0L);
+            for (Ast.Expression argument : function.getArguments()) {
+                count += count(argument);
+            }
+            return count;
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the bytes of heap in use after collecting garbage.
+     */
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Compares parsing a whole file after an edit with reparsing only the
+     * method it changed, renaming a variable in the middle of the file, for
+     * which the time to reparse should not grow with the file. Each reparse
+     * starts from a copy of the declarations, since reparsing updates them.
+     */
+    private static void benchmarkReparse(String source) {
+        List<Token> tokens = new Lexer(source).lex();
+        DeclarationMap declarations = new DeclarationMap();
+        Ast.Source previous = new Parser(tokens).withDeclarations(declarations).parseSource();
+        int offset = source.indexOf("current * 2", source.length() / 2);
+        String edited = source.substring(0, offset) + "previous" + source.substring(offset + "current".length());
+        List<Token> relexed = Lexer.relex(edited, tokens, offset, "current".length(), "previous", null);
+        String name = String.format("%,d methods", previous.getMethods().size());
+        LexerBenchmark.report("parse " + name, 1, "edits", () -> {
+            return new Parser(relexed).parseSource().getMethods().size();
+        });
+        LexerBenchmark.report("reparse " + name, 100, "edits", () -> {
+            long methods = 0;
+            for (int i = 0; i < 100; i++) {
+                methods += new Parser(relexed).withDeclarations(declarations.copy())
+                        .reparseSource(previous, tokens, offset, "current".length(), "previous".length()).getMethods().size();
+            }
+            return methods;
+        });
+    }
+
+    /**
+     * Compares parsing sequentially with parsing in parallel on pools of up
+     * to as many threads as there are cores, with four chunks per thread so
+     * that uneven chunks still balance.
+     */
+    private static void benchmarkParallel(String source) {
+        TokenBuffer tokens = new Lexer(source, Lexer.Mode.DFA).lexBuffer();
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("parallel: %,d methods, %d cores%n", new Parser(tokens).parseSource().getMethods().size(), cores);
+        for (int i = 0; i < 10; i++) {
+            sink += new Parser(tokens).parseSource().getMethods().size();
+            sink += new Parser(tokens).parseParallel(ForkJoinPool.commonPool(), 4).getMethods().size();
+        }
+        LexerBenchmark.report("methods sequential", tokens.size(), "tokens", () -> {
+            return new Parser(tokens).parseSource().getMethods().size();
+        });
+        for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : cores + 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            int chunks = threads * 4;
+            LexerBenchmark.report("methods parallel " + threads, tokens.size(), "tokens", () -> {
+                return new Parser(tokens).parseParallel(pool, chunks).getMethods().size();
+            });
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compares parsing every method body with pre-parsing them, both when
+     * only the signatures are read, as when indexing a file, and when every
+     * body is read afterwards, which should cost about the same as parsing it
+     * eagerly.
+     */
+    private static void benchmarkLazyBodies(String source) {
+        TokenBuffer tokens = new Lexer(source, Lexer.Mode.DFA).lexBuffer();
+        // one warmup run is not enough for pre-parsing and parsing to compile
+        for (int i = 0; i < 10; i++) {
+            for (Ast.Method method : new Parser(tokens).withLazyBodies(i % 2 == 0).parseSource().getMethods()) {
+                sink += method.getStatements().size();
+            }
+        }
+        LexerBenchmark.report("methods eager", tokens.size(), "tokens", () -> {
+            return new Parser(tokens).parseSource().getMethods().size();
+        });
+        LexerBenchmark.report("methods lazy signatures", tokens.size(), "tokens", () -> {
+            long parameters = 0;
+            for (Ast.Method method : new Parser(tokens).withLazyBodies(true).parseSource().getMethods()) {
+                parameters += method.getParameters().size();
+            }
+            return parameters;
+        });
+        LexerBenchmark.report("methods lazy bodies", tokens.size(), "tokens", () -> {
+            long statements = 0;
+            for (Ast.Method method : new Parser(tokens).withLazyBodies(true).parseSource().getMethods()) {
+                statements += method.getStatements().size();
+            }
+            return statements;
+        });
+    }
+
+    /**
+     * Measures the bytes allocated per token while parsing a long chain of
+     * identifiers and operators from a {@link TokenBuffer}, where each token
+     * becomes exactly one {@code Access} or {@code Binary} node and nothing
+     * else needs to allocate. The result should be the size of those nodes
+     * (24 bytes with compressed oops), with nothing from matching the tokens,
+     * also when run with {@code -Xint} where escape analysis cannot hide it.
+     */
+    private static void benchmarkAllocation() {
+        String[] operators = {"+", "*", "==", "&&", "-", "<", "/", "||"};
+        StringBuilder builder = new StringBuilder("x");
+        for (int i = 0; i < 100_000; i++) {
+            builder.append(' ').append(operators[i % operators.length]).append(" x");
+        }
+        TokenBuffer tokens = new Lexer(builder.toString(), Lexer.Mode.DFA).lexBuffer();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (Parser.Mode mode : Parser.Mode.values()) {
+            long bytes = Long.MAX_VALUE;
+            for (int i = 0; i < 20; i++) {
+                long start = threads.getCurrentThreadAllocatedBytes();
+                new Parser(tokens, mode).parseExpression();
+                bytes = Math.min(bytes, threads.getCurrentThreadAllocatedBytes() - start);
+            }
+            System.out.printf("%-28s %10.2f bytes/token%n", "allocation " + mode, (double) bytes / tokens.size());
+        }
+    }
+
+    /**
+     * Builds a source of fields whose values nest groups of binary operators
+     * of every precedence to the given depth.
+     */
+    static String nested(int fields, int depth) {
+        String[] operators = {"+", "*", "-", "/", "==", "&&", "<", "||", ">="};
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < fields; i++) {
+            builder.append("LET x").append(i).append(" = ");
+            for (int j = 0; j < depth; j++) {
+                builder.append("(a").append(j).append(' ').append(operators[(i + j) % operators.length]).append(' ');
+            }
+            builder.append(i);
+            for (int j = 0; j < depth; j++) {
+                builder.append(" * b.c(").append(j).append("))");
+            }
+            builder.append(";\n");
+        }
+        return builder.toString();
+    }
+
+
+    /**
+     * A copy of a tree as plain serializable objects, which is what {@code
+     * java.io} would write for the tree if it were serializable. Each node is
+     * its {@link FlatAst} kind, its name, operator, literal or message, and its
+     * children, where a list is an array and an absent child is {@code null}.
+     */
+    private static final class SerializedNode implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int kind;
+        private final Object value;
+        private final Object[] children;
+
+        private SerializedNode(int kind, Object value, Object... children) {
+            this.kind = kind;
+            this.value = value;
+            this.children = children;
+        }
+
+        static SerializedNode of(Ast.Source source) {
+            SerializedNode[] fields = new SerializedNode[source.getFields().size()];
+            for (int i = 0; i < fields.length; i++) {
+                Ast.Field field = source.getFields().get(i);
+                fields[i] = new SerializedNode(FlatAst.FIELD, field.getName(), field.getConstant(), of(field.getValue()));
+            }
+            SerializedNode[] methods = new SerializedNode[source.getMethods().size()];
+            for (int i = 0; i < methods.length; i++) {
+                Ast.Method method = source.getMethods().get(i);
+                methods[i] = new SerializedNode(FlatAst.METHOD, method.getName(),
+                        method.getParameters().toArray(new String[0]), statements(method.getStatements()));
+            }
+            return new SerializedNode(FlatAst.SOURCE, null, fields, methods);
+        }
+
+        private static SerializedNode[] statements(List<Ast.Statement> statements) {
+            SerializedNode[] nodes = new SerializedNode[statements.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = of(statements.get(i));
+            }
+            return nodes;
+        }
+
+        private static SerializedNode of(Ast.Statement statement) {
+            if (statement instanceof Ast.Statement.Expression) {
+                return new SerializedNode(FlatAst.EXPRESSION_STATEMENT, null, of(((Ast.Statement.Expression) statement).getExpression()));
+            } else if (statement instanceof Ast.Statement.Declaration) {
+                Ast.Statement.Declaration ast = (Ast.Statement.Declaration) statement;
+                return new SerializedNode(FlatAst.DECLARATION, ast.getName(), of(ast.getValue()));
+            } else if (statement instanceof Ast.Statement.Assignment) {
+                Ast.Statement.Assignment ast = (Ast.Statement.Assignment) statement;
+                return new SerializedNode(FlatAst.ASSIGNMENT, null, of(ast.getReceiver()), of(ast.getValue()));
+            } else if (statement instanceof Ast.Statement.If) {
+                Ast.Statement.If ast = (Ast.Statement.If) statement;
+                return new SerializedNode(FlatAst.IF, null, of(ast.getCondition()),
+                        statements(ast.getThenStatements()), statements(ast.getElseStatements()));
+            } else if (statement instanceof Ast.Statement.For) {
+                Ast.Statement.For ast = (Ast.Statement.For) statement;
+                return new SerializedNode(FlatAst.FOR, ast.getName(), of(ast.getValue()), statements(ast.getStatements()));
+            } else if (statement instanceof Ast.Statement.While) {
+                Ast.Statement.While ast = (Ast.Statement.While) statement;
+                return new SerializedNode(FlatAst.WHILE, null, of(ast.getCondition()), statements(ast.getStatements()));
+            }
+            return new SerializedNode(FlatAst.RETURN, null, of(((Ast.Statement.Return) statement).getValue()));
+        }
+
+        private static SerializedNode of(Optional<Ast.Expression> expression) {
+            return expression.isPresent() ? of(expression.get()) : null;
+        }
+
+        private static SerializedNode of(Ast.Expression expression) {
+            if (expression instanceof Ast.Expression.Literal) {
+                return new SerializedNode(FlatAst.LITERAL, ((Ast.Expression.Literal) expression).getLiteral());
+            } else if (expression instanceof Ast.Expression.Group) {
+                return new SerializedNode(FlatAst.GROUP, null, of(((Ast.Expression.Group) expression).getExpression()));
+            } else if (expression instanceof Ast.Expression.Binary) {
+                Ast.Expression.Binary ast = (Ast.Expression.Binary) expression;
+                return new SerializedNode(FlatAst.BINARY, ast.getOperator(), of(ast.getLeft()), of(ast.getRight()));
+            } else if (expression instanceof Ast.Expression.Access) {
+                Ast.Expression.Access ast = (Ast.Expression.Access) expression;
+                return new SerializedNode(FlatAst.ACCESS, ast.getName(), of(ast.getReceiver()));
+            } else if (expression instanceof Ast.Expression.Function) {
+                Ast.Expression.Function ast = (Ast.Expression.Function) expression;
+                SerializedNode[] arguments = new SerializedNode[ast.getArguments().size()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = of(ast.getArguments().get(i));
+                }
+                return new SerializedNode(FlatAst.FUNCTION, ast.getName(), of(ast.getReceiver()), arguments);
+            }
+            return new SerializedNode(FlatAst.ERROR, ((Ast.Expression.Error) expression).getMessage());
+        }
+
+        Ast.Source toSource() {
+            List<Ast.Field> fields = new ArrayList<>();
+            for (SerializedNode field : (SerializedNode[]) children[0]) {
+                fields.add(new Ast.Field((String) field.value, (Boolean) field.children[0], field.optional(1)));
+            }
+            List<Ast.Method> methods = new ArrayList<>();
+            for (SerializedNode method : (SerializedNode[]) children[1]) {
+                methods.add(new Ast.Method((String) method.value, Arrays.asList((String[]) method.children[0]), method.statements(1)));
+            }
+            return new Ast.Source(fields, methods);
+        }
+
+        private List<Ast.Statement> statements(int child) {
+            SerializedNode[] nodes = (SerializedNode[]) children[child];
+            List<Ast.Statement> statements = new ArrayList<>(nodes.length);
+            for (SerializedNode node : nodes) {
+                statements.add(node.toStatement());
+            }
+            return statements;
+        }
+
+        private Ast.Statement toStatement() {
+            switch (kind) {
+                case FlatAst.EXPRESSION_STATEMENT:
+                    return new Ast.Statement.Expression(expression(0));
+                case FlatAst.DECLARATION:
+                    return new Ast.Statement.Declaration((String) value, optional(0));
+                case FlatAst.ASSIGNMENT:
+                    return new Ast.Statement.Assignment(expression(0), expression(1));
+                case FlatAst.IF:
+                    return new Ast.Statement.If(expression(0), statements(1), statements(2));
+                case FlatAst.FOR:
+                    return new Ast.Statement.For((String) value, expression(0), statements(1));
+                case FlatAst.WHILE:
+                    return new Ast.Statement.While(expression(0), statements(1));
+                default:
+                    return new Ast.Statement.Return(expression(0));
+            }
+        }
+
+        private Optional<Ast.Expression> optional(int child) {
+            return children[child] == null ? Optional.empty() : Optional.of(expression(child));
+        }
+
+        private Ast.Expression expression(int child) {
+            return ((SerializedNode) children[child]).toExpression();
+        }
+
+        private Ast.Expression toExpression() {
+            switch (kind) {
+                case FlatAst.LITERAL:
+                    return new Ast.Expression.Literal(value);
+                case FlatAst.GROUP:
+                    return new Ast.Expression.Group(expression(0));
+                case FlatAst.BINARY:
+                    return new Ast.Expression.Binary((String) value, expression(0), expression(1));
+                case FlatAst.ACCESS:
+                    return new Ast.Expression.Access(optional(0), (String) value);
+                case FlatAst.FUNCTION: {
+                    SerializedNode[] nodes = (SerializedNode[]) children[1];
+                    List<Ast.Expression> arguments = new ArrayList<>(nodes.length);
+                    for (SerializedNode node : nodes) {
+                        arguments.add(node.toExpression());
+                    }
+                    return new Ast.Expression.Function(optional(0), (String) value, arguments);
+                }
+                default:
+                    return new Ast.Expression.Error((String) value);
+            }
+        }
+
+    }
+
+}
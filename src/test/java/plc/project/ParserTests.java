@@ -0,0 +1,719 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+public class ParserTests {
+
+    /**
+     * Tests the {@code source} rule, {@code field* method*}, where a field is
+     * {@code LET CONST? identifier (':' identifier)? ('=' expression)? ';'}.
+     */
+    @ParameterizedTest
+    @MethodSource
+    void testSource(String test, String input, Ast.Source expected) {
+        Assertions.assertEquals(expected, new Parser(new Lexer(input).lex()).parseSource());
+    }
+
+    private static Stream<Arguments> testSource() {
+        return Stream.of(
+                Arguments.of("Field", "LET name = expr;", new Ast.Source(
+                        Arrays.asList(new Ast.Field("name", false, Optional.of(new Ast.Expression.Access(Optional.empty(), "expr")))),
+                        Arrays.asList()
+                )),
+                Arguments.of("Constant Field", "LET CONST name = 1;", new Ast.Source(
+                        Arrays.asList(new Ast.Field("name", true, Optional.of(new Ast.Expression.Literal(BigInteger.ONE)))),
+                        Arrays.asList()
+                )),
+                Arguments.of("Field Without Value", "LET name;", new Ast.Source(
+                        Arrays.asList(new Ast.Field("name", false, Optional.empty())),
+                        Arrays.asList()
+                )),
+                Arguments.of("Typed Field", "LET name: Integer = 1;", new Ast.Source(
+                        Arrays.asList(new Ast.Field("name", false, Optional.of(new Ast.Expression.Literal(BigInteger.ONE)))),
+                        Arrays.asList()
+                )),
+                Arguments.of("Typed Constant Field Without Value", "LET CONST name: Integer;", new Ast.Source(
+                        Arrays.asList(new Ast.Field("name", true, Optional.empty())),
+                        Arrays.asList()
+                ))
+        );
+    }
+
+    /**
+     * Tests the {@code statement} rule: a {@code LET} declaration, an {@code
+     * IF} with an optional {@code ELSE}, {@code FOR identifier IN expression},
+     * {@code WHILE}, {@code RETURN}, or an expression or assignment, each
+     * ended by {@code ;} or by the {@code END} of its block.
+     */
+    @ParameterizedTest
+    @MethodSource
+    void testStatement(String test, String input, Ast.Statement expected) {
+        Assertions.assertEquals(expected, new Parser(new Lexer(input).lex()).parseStatement());
+    }
+
+    private static Stream<Arguments> testStatement() {
+        return Stream.of(
+                Arguments.of("Expression", "f();",
+                        new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "f", Arrays.asList()))),
+                Arguments.of("Assignment", "x = 1;",
+                        new Ast.Statement.Assignment(access("x"), new Ast.Expression.Literal(BigInteger.ONE))),
+                Arguments.of("Declaration", "LET x;",
+                        new Ast.Statement.Declaration("x", Optional.empty())),
+                Arguments.of("If Else", "IF c DO a; ELSE b; END",
+                        new Ast.Statement.If(access("c"),
+                                Arrays.asList(new Ast.Statement.Expression(access("a"))),
+                                Arrays.asList(new Ast.Statement.Expression(access("b"))))),
+                Arguments.of("For", "FOR i IN xs DO f(i); END",
+                        new Ast.Statement.For("i", access("xs"), Arrays.asList(new Ast.Statement.Expression(
+                                new Ast.Expression.Function(Optional.empty(), "f", Arrays.asList(access("i"))))))),
+                Arguments.of("While", "WHILE c DO END",
+                        new Ast.Statement.While(access("c"), Arrays.asList())),
+                Arguments.of("Return", "RETURN x;",
+                        new Ast.Statement.Return(access("x"))),
+                Arguments.of("Declaration With Value", "LET x = 1;",
+                        new Ast.Statement.Declaration("x", Optional.of(new Ast.Expression.Literal(BigInteger.ONE)))),
+                Arguments.of("Field Assignment", "obj.x = 1;",
+                        new Ast.Statement.Assignment(new Ast.Expression.Access(Optional.of(access("obj")), "x"),
+                                new Ast.Expression.Literal(BigInteger.ONE))),
+                Arguments.of("If Without Else", "IF c DO a; END",
+                        new Ast.Statement.If(access("c"), Arrays.asList(new Ast.Statement.Expression(access("a"))), Arrays.asList())),
+                Arguments.of("Nested Blocks", "WHILE c DO IF d DO RETURN x; END END",
+                        new Ast.Statement.While(access("c"), Arrays.asList(new Ast.Statement.If(access("d"),
+                                Arrays.asList(new Ast.Statement.Return(access("x"))), Arrays.asList()))))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testStatementException(String test, String input, String message, int index) {
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input).lex()).parseStatement());
+        Assertions.assertEquals(message, exception.getMessage());
+        Assertions.assertEquals(index, exception.getIndex());
+    }
+
+    private static Stream<Arguments> testStatementException() {
+        return Stream.of(
+                Arguments.of("Missing DO", "IF c a; END", "Expected DO", 5),
+                Arguments.of("Missing IN", "FOR i xs DO END", "Expected IN", 6),
+                Arguments.of("Missing END", "WHILE c DO", "Expected END", 10),
+                Arguments.of("Missing Return Semicolon", "RETURN x", "Expected semicolon", 8),
+                Arguments.of("Declaration Without Name", "LET = 1;", "Expected identifier", 4)
+        );
+    }
+
+    /**
+     * Tests the {@code method} rule, {@code DEF identifier '(' parameters? ')'
+     * DO statement* END}, where methods follow every field.
+     */
+    @Test
+    void testMethod() {
+        Ast.Source expected = new Ast.Source(
+                Arrays.asList(new Ast.Field("x", false, Optional.empty())),
+                Arrays.asList(new Ast.Method("f", Arrays.asList("a", "b"), Arrays.asList(
+                        new Ast.Statement.Return(binary("+", access("a"), access("b")))
+                )), new Ast.Method("g", Arrays.asList(), Arrays.asList()))
+        );
+        Assertions.assertEquals(expected, new Parser(new Lexer("LET x; DEF f(a, b) DO RETURN a + b; END DEF g() DO END").lex()).parseSource());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testMethodException(String test, String input, String message, int index) {
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input).lex()).parseSource());
+        Assertions.assertEquals(message, exception.getMessage());
+        Assertions.assertEquals(index, exception.getIndex());
+    }
+
+    private static Stream<Arguments> testMethodException() {
+        return Stream.of(
+                Arguments.of("Missing Parameters", "DEF f DO END", "Expected opening parenthesis", 6),
+                Arguments.of("Parameter Not Identifier", "DEF f(1) DO END", "Expected identifier", 6),
+                Arguments.of("Missing DO", "DEF f() END", "Expected DO", 8),
+                Arguments.of("Missing END Before DEF", "DEF f() DO DEF g() DO END", "Expected END", 11),
+                Arguments.of("Field After Method", "DEF f() DO END LET x;", "Fields must be declared before methods", 15)
+        );
+    }
+
+    /**
+     * Tests that with diagnostics every error is reported in one pass, the
+     * declarations and statements without errors are still parsed, and those
+     * with errors are replaced by placeholders holding an error node.
+     */
+    @Test
+    void testDiagnostics() {
+        String input = String.join("\n",
+                "LET a = ;",                    // 8: missing expression, field replaced
+                "LET b = 1;",
+                "DEF f(x, 1) DO",               // 30: bad parameter, skipped to ')'
+                "    y = (1 + ;",               // 49: missing operand, statement replaced
+                "    RETURN x;",
+                "END",
+                "DEF g() DO",
+                "    IF x DO z = 1 END",        // 98: missing semicolon, the IF is kept
+                "    \"bad\\q\";",           // 111: lex error, reported once and replaced
+                "END",
+                "LET c;");                      // 119: field after a method, as a method
+        Diagnostics diagnostics = new Diagnostics();
+        Ast.Source source = new Parser(new Lexer(input).withDiagnostics(diagnostics).lex()).withDiagnostics(diagnostics).parseSource();
+        int[] indices = new int[diagnostics.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = diagnostics.getIndex(i);
+        }
+        Assertions.assertArrayEquals(new int[] {111, 8, 30, 49, 98, 119}, indices, diagnostics.toString());
+        Assertions.assertEquals(new Ast.Source(
+                Arrays.asList(
+                        new Ast.Field("", false, Optional.of(new Ast.Expression.Error("Invalid Primary Expression"))),
+                        new Ast.Field("b", false, Optional.of(new Ast.Expression.Literal(BigInteger.ONE)))
+                ),
+                Arrays.asList(
+                        new Ast.Method("f", Arrays.asList("x"), Arrays.asList(
+                                error("Invalid Primary Expression"),
+                                new Ast.Statement.Return(access("x")))),
+                        new Ast.Method("g", Arrays.asList(), Arrays.asList(
+                                new Ast.Statement.If(access("x"), Arrays.asList(error("Expected semicolon")), Arrays.asList()),
+                                error("Invalid Primary Expression"))),
+                        new Ast.Method("", Arrays.asList(), Arrays.asList(error("Fields must be declared before methods")))
+                )
+        ), source);
+
+        diagnostics.clear();
+        String valid = Sources.fields(100) + Sources.methods(10_000);
+        Assertions.assertEquals(new Parser(new Lexer(valid).lex()).parseSource(),
+                new Parser(new Lexer(valid).lex()).withDiagnostics(diagnostics).parseSource());
+        Assertions.assertEquals(0, diagnostics.size());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testSourceException(String test, String input, int index) {
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input).lex()).parseSource());
+        Assertions.assertEquals(index, exception.getIndex());
+    }
+
+    private static Stream<Arguments> testSourceException() {
+        return Stream.of(
+                Arguments.of("Missing Semicolon", "LET name = expr", 15),
+                Arguments.of("Missing Name", "LET = expr;", 4),
+                Arguments.of("Not A Declaration", "LET x; x = 1;", 7),
+                Arguments.of("Stray Token", "LET x;;", 6),
+                Arguments.of("Missing Type", "LET name: = 1;", 10),
+                Arguments.of("Type After Value", "LET name = 1: Integer;", 12)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testExpression(String test, String input, Ast.Expression expected) {
+        Assertions.assertEquals(expected, new Parser(new Lexer(input).lex()).parseExpression());
+    }
+
+    private static Stream<Arguments> testExpression() {
+        return Stream.of(
+                Arguments.of("Multiplicative Before Additive", "a + b * c",
+                        binary("+", access("a"), binary("*", access("b"), access("c")))),
+                Arguments.of("Left Associative", "a - b - c",
+                        binary("-", binary("-", access("a"), access("b")), access("c"))),
+                Arguments.of("Left Associative Equality", "a == b != c",
+                        binary("!=", binary("==", access("a"), access("b")), access("c"))),
+                Arguments.of("Logical Same Level", "a || b && c",
+                        binary("&&", binary("||", access("a"), access("b")), access("c"))),
+                Arguments.of("Every Level", "a && b < c + d * e",
+                        binary("&&", access("a"), binary("<", access("b"), binary("+", access("c"), binary("*", access("d"), access("e")))))),
+                Arguments.of("Group", "(a + b) * c",
+                        binary("*", new Ast.Expression.Group(binary("+", access("a"), access("b"))), access("c"))),
+                Arguments.of("Method Operand", "a.b(c) / d",
+                        binary("/", new Ast.Expression.Function(Optional.of(access("a")), "b", Arrays.asList(access("c"))), access("d")))
+        );
+    }
+
+    /**
+     * Tests that both modes parse random expressions, mixing every operator,
+     * groups, accesses and calls, into the same tree.
+     */
+    @Test
+    void testIterativeRandom() {
+        Random random = new Random(18);
+        for (int i = 0; i < 2000; i++) {
+            String input = expression(random, 6);
+            Ast.Expression expected = new Parser(new Lexer(input).lex(), Parser.Mode.RECURSIVE).parseExpression();
+            Assertions.assertEquals(expected, new Parser(new Lexer(input).lex(), Parser.Mode.ITERATIVE).parseExpression(), input);
+        }
+    }
+
+    /**
+     * Tests that both modes throw the same error for random sequences of the
+     * tokens expressions are made of, which are mostly invalid.
+     */
+    @Test
+    void testIterativeRandomException() {
+        Random random = new Random(18);
+        String[] pieces = {"a", "1", "TRUE", "f", "(", ")", ",", ".", "+", "*", "==", "&&", "\"s\""};
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder builder = new StringBuilder();
+            for (int j = random.nextInt(12); j >= 0; j--) {
+                builder.append(pieces[random.nextInt(pieces.length)]).append(' ');
+            }
+            String input = builder.toString();
+            Object expected, actual;
+            try {
+                expected = new Parser(new Lexer(input).lex(), Parser.Mode.RECURSIVE).parseExpression();
+            } catch (ParseException e) {
+                expected = e.getMessage() + "@" + e.getIndex();
+            }
+            try {
+                actual = new Parser(new Lexer(input).lex(), Parser.Mode.ITERATIVE).parseExpression();
+            } catch (ParseException e) {
+                actual = e.getMessage() + "@" + e.getIndex();
+            }
+            Assertions.assertEquals(expected, actual, input);
+        }
+    }
+
+    /**
+     * Tests that the iterative mode parses nesting and chains far deeper than
+     * the Java stack allows the recursive mode to, checking the shape of the
+     * tree with a loop since comparing it would recurse.
+     */
+    @Test
+    void testIterativeDeep() {
+        int depth = 100_000;
+        Ast.Expression expression = new Parser(new Lexer("(".repeat(depth) + "x" + ")".repeat(depth)).lex(), Parser.Mode.ITERATIVE).parseExpression();
+        for (int i = 0; i < depth; i++) {
+            expression = ((Ast.Expression.Group) expression).getExpression();
+        }
+        Assertions.assertEquals(access("x"), expression);
+
+        expression = new Parser(new Lexer("f(".repeat(depth) + "x" + ")".repeat(depth)).lex(), Parser.Mode.ITERATIVE).parseExpression();
+        for (int i = 0; i < depth; i++) {
+            expression = ((Ast.Expression.Function) expression).getArguments().get(0);
+        }
+        Assertions.assertEquals(access("x"), expression);
+
+        expression = new Parser(new Lexer("x" + " + x".repeat(depth)).lex(), Parser.Mode.ITERATIVE).parseExpression();
+        for (int i = 0; i < depth; i++) {
+            Assertions.assertEquals(access("x"), ((Ast.Expression.Binary) expression).getRight());
+            expression = ((Ast.Expression.Binary) expression).getLeft();
+        }
+        Assertions.assertEquals(access("x"), expression);
+    }
+
+    /**
+     * Tests that parsing while lexing on another thread produces the same
+     * tree as parsing the lexed list, through a ring much smaller than the
+     * input so the lexer waits on the parser.
+     */
+    @Test
+    void testPipelined() {
+        String input = Sources.fields(20_000);
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Assertions.assertEquals(expected, Parser.parseSource(new Lexer(input), executor));
+            Assertions.assertEquals(expected, new Parser(new Lexer(input).lexAsync(executor, 128)).parseSource());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a parse error is thrown without lexing the rest of the input,
+     * and a lex error is thrown once the parser reaches it. An {@link Error}
+     * in the lexer, here from its reader, ends the parser rather than leaving
+     * it waiting for more tokens.
+     */
+    @Test
+    void testPipelinedException() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            String input = "LET x = 1 2;" + Sources.fields(20_000) + " \"unterminated";
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> Parser.parseSource(new Lexer(input), executor));
+            Assertions.assertEquals(10, exception.getIndex());
+            String valid = Sources.fields(20_000) + " \"unterminated";
+            exception = Assertions.assertThrows(ParseException.class,
+                    () -> Parser.parseSource(new Lexer(valid), executor));
+            Assertions.assertEquals(valid.length(), exception.getIndex());
+            Reader reader = new StringReader(Sources.fields(20_000)) {
+                @Override
+                public int read(char[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read < 0) {
+                        throw new InternalError("reader failed");
+                    }
+                    return read;
+                }
+            };
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                Assertions.assertThrows(InternalError.class, () -> Parser.parseSource(new Lexer(reader), executor));
+            });
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Parser(new TokenRing(16)));
+    }
+
+    @Test
+    void testLazyBodies() {
+        String input = Sources.fields(100) + Sources.methods(10_000);
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertFalse(expected.getMethods().isEmpty());
+        for (Parser.Mode mode : Parser.Mode.values()) {
+            Assertions.assertEquals(expected, new Parser(new Lexer(input).lex(), mode).withLazyBodies(true).parseSource());
+            Assertions.assertEquals(expected, new Parser(new Lexer(input).lexBuffer(), mode).withLazyBodies(true).parseSource());
+        }
+        Assertions.assertThrows(IllegalStateException.class, () -> new Parser(new TokenRing(128)).withLazyBodies(true));
+    }
+
+    @Test
+    void testLazyBodiesException() {
+        // the error in the body is only thrown once its statements are read
+        String input = "DEF f() DO IF x DO y = ; END END DEF g() DO END";
+        Ast.Source source = new Parser(new Lexer(input).lex()).withLazyBodies(true).parseSource();
+        Assertions.assertEquals("g", source.getMethods().get(1).getName());
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> source.getMethods().get(0).getStatements().size());
+        Assertions.assertEquals(23, exception.getIndex());
+        // with diagnostics, it is reported then and the statement replaced
+        Diagnostics diagnostics = new Diagnostics();
+        Ast.Source recovered = new Parser(new Lexer(input).lex()).withDiagnostics(diagnostics).withLazyBodies(true).parseSource();
+        Assertions.assertEquals(0, diagnostics.size());
+        Assertions.assertEquals(Arrays.asList(new Ast.Statement.If(access("x"),
+                        Arrays.asList(error("Invalid Primary Expression")), Arrays.asList())),
+                recovered.getMethods().get(0).getStatements());
+        Assertions.assertEquals(1, diagnostics.size());
+        // a body without its END is parsed immediately, failing as before
+        exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer("DEF f() DO x;").lex()).withLazyBodies(true).parseSource());
+        Assertions.assertEquals(13, exception.getIndex());
+    }
+
+    @Test
+    void testReparse() {
+        Random random = new Random(23);
+        String[] fragments = {"x", "1", ".", " ", "\n", "=", ";", "(", ")", "+", "LET y;", "DEF", "END", "DO", "IF", "RETURN"};
+        String input = Sources.fields(20) + Sources.methods(3_000);
+        SymbolTable symbols = new SymbolTable();
+        List<Token> tokens = new Lexer(input).withSymbols(symbols).lex();
+        DeclarationMap declarations = new DeclarationMap();
+        Ast.Source source = new Parser(tokens).withDiagnostics(new Diagnostics()).withDeclarations(declarations).parseSource();
+        for (int i = 0; i < 1000; i++) {
+            int offset = random.nextInt(input.length() + 1);
+            int removed = random.nextInt(Math.min(4, input.length() - offset) + 1);
+            String inserted = random.nextBoolean() ? fragments[random.nextInt(fragments.length)] : "";
+            String edited = input.substring(0, offset) + inserted + input.substring(offset + removed);
+            List<Token> relexed;
+            try {
+                relexed = Lexer.relex(edited, tokens, offset, removed, inserted, symbols);
+            } catch (ParseException e) {
+                continue;
+            }
+            DeclarationMap expectedDeclarations = new DeclarationMap();
+            Ast.Source expected = new Parser(relexed).withDiagnostics(new Diagnostics()).withDeclarations(expectedDeclarations).parseSource();
+            source = new Parser(relexed).withDiagnostics(new Diagnostics()).withDeclarations(declarations)
+                    .reparseSource(source, tokens, offset, removed, inserted.length());
+            Assertions.assertEquals(expected, source, "Edit " + i);
+            Assertions.assertEquals(expectedDeclarations.getDeclarationCount(), declarations.getDeclarationCount(), "Edit " + i);
+            for (int j = 0; j < declarations.getDeclarationCount(); j++) {
+                Assertions.assertEquals(expectedDeclarations.getStart(j), declarations.getStart(j), "Edit " + i);
+            }
+            input = edited;
+            tokens = relexed;
+        }
+    }
+
+    @Test
+    void testReparseShared() {
+        String input = Sources.fields(10) + Sources.methods(2_000);
+        List<Token> tokens = new Lexer(input).lex();
+        DeclarationMap declarations = new DeclarationMap();
+        Ast.Source previous = new Parser(tokens).withDeclarations(declarations).parseSource();
+        // renames a variable in the body of the third method
+        int offset = input.indexOf("current * 2", input.indexOf("DEF", input.indexOf("DEF", input.indexOf("DEF") + 1) + 1));
+        String edited = input.substring(0, offset) + "previous" + input.substring(offset + "current".length());
+        List<Token> relexed = Lexer.relex(edited, tokens, offset, "current".length(), "previous", null);
+        Ast.Source source = new Parser(relexed).withDeclarations(declarations).reparseSource(previous, tokens, offset, "current".length(), "previous".length());
+        Assertions.assertEquals(new Parser(relexed).parseSource(), source);
+        for (int i = 0; i < source.getFields().size(); i++) {
+            Assertions.assertSame(previous.getFields().get(i), source.getFields().get(i));
+        }
+        for (int i = 0; i < source.getMethods().size(); i++) {
+            if (i == 2) {
+                Assertions.assertNotEquals(previous.getMethods().get(i), source.getMethods().get(i));
+            } else {
+                Assertions.assertSame(previous.getMethods().get(i), source.getMethods().get(i), "Method " + i);
+            }
+        }
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> new Parser(relexed).reparseSource(previous, tokens, offset, 7, 8));
+    }
+
+    @Test
+    void testFlatAst() {
+        // literals equal as objects but not as values must stay apart
+        String input = "LET a = 1.0; LET b = 1.00; LET c = 1; LET CONST d = 'x' + \"x\" + \"\\n\"; LET e = NIL;"
+                + Sources.fields(100) + Sources.methods(100_000)
+                + "DEF g(x, y) DO FOR i IN x.list() DO IF TRUE DO x.y = (i); ELSE RETURN FALSE; END END END";
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        FlatAst flat = FlatAst.of(source);
+        Assertions.assertEquals(source, flat.toAst());
+        Assertions.assertEquals(new Ast.Field("b", false, Optional.of(new Ast.Expression.Literal(new BigDecimal("1.00")))),
+                flat.toAst().getFields().get(1));
+        Assertions.assertEquals(FlatAst.SOURCE, flat.getKind(flat.getRoot()));
+        Assertions.assertEquals(Ast.Source.class, FlatAst.of(new Ast.Source(Arrays.asList(), Arrays.asList())).toAst().getClass());
+        // the placeholders of declarations and statements with errors too
+        Ast.Source recovered = new Parser(new Lexer("LET a = ; DEF f() DO x = ; END LET b;").lex())
+                .withDiagnostics(new Diagnostics()).parseSource();
+        Assertions.assertEquals(recovered, FlatAst.of(recovered).toAst());
+    }
+
+    @Test
+    void testFlatAstWalk() {
+        String input = Sources.fields(10) + Sources.methods(2_000);
+        FlatAst flat = FlatAst.of(new Parser(new Lexer(input).lex()).parseSource());
+        // nodes are in pre-order, so walking enters them in index order
+        int[] next = {0};
+        int[] depth = {0};
+        flat.walk(flat.getRoot(), new FlatAst.Visitor() {
+
+            @Override
+            public boolean enter(FlatAst ast, int node) {
+                Assertions.assertEquals(next[0]++, node);
+                depth[0]++;
+                return true;
+            }
+
+            @Override
+            public void exit(FlatAst ast, int node) {
+                depth[0]--;
+            }
+
+        });
+        Assertions.assertEquals(flat.getNodeCount(), next[0]);
+        Assertions.assertEquals(0, depth[0]);
+        // skipping the bodies of methods leaves only the declarations
+        int[] entered = {0};
+        flat.walk(flat.getRoot(), (ast, node) -> {
+            entered[0]++;
+            return ast.getKind(node) != FlatAst.METHOD;
+        });
+        Ast.Source source = flat.toAst();
+        int fieldNodes = 0;
+        for (int node = 0; node < flat.getNodeCount() && flat.getKind(node) != FlatAst.METHOD; node++) {
+            fieldNodes++;
+        }
+        Assertions.assertEquals(fieldNodes + source.getMethods().size(), entered[0]);
+    }
+
+    @Test
+    void testCodec() throws IOException {
+        String input = "LET a = 1.0; LET b = 1.00; LET c = 123456789012345678901234567890; LET d = -9223372036854775808;"
+                + "LET e = 12345678901234567890.123456789; LET CONST f = '\u00e9' + \"caf\u00e9\\n\" + \"\"; LET g = NIL; LET h;"
+                + Sources.fields(100) + Sources.methods(100_000)
+                + "DEF g(x, y) DO FOR i IN x.list() DO IF TRUE DO x.y = (i); ELSE RETURN FALSE; END END END DEF h() DO END";
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        byte[] bytes = AstCodec.encode(source);
+        Assertions.assertEquals(source, AstCodec.decode(ByteBuffer.wrap(bytes)));
+        Assertions.assertEquals(new Ast.Field("b", false, Optional.of(new Ast.Expression.Literal(new BigDecimal("1.00")))),
+                AstCodec.decode(ByteBuffer.wrap(bytes)).getFields().get(1));
+        Path path = Files.createTempFile("parser", ".plca");
+        try {
+            AstCodec.write(source, path);
+            Assertions.assertEquals(source, AstCodec.map(path));
+        } finally {
+            Files.delete(path);
+        }
+        Ast.Source empty = new Ast.Source(Arrays.asList(), Arrays.asList());
+        Assertions.assertEquals(empty, AstCodec.decode(ByteBuffer.wrap(AstCodec.encode(empty))));
+        Ast.Source recovered = new Parser(new Lexer("LET a = ; DEF f() DO x = ; END LET b;").lex())
+                .withDiagnostics(new Diagnostics()).parseSource();
+        Assertions.assertEquals(recovered, AstCodec.decode(ByteBuffer.wrap(AstCodec.encode(recovered))));
+    }
+
+    @Test
+    void testCodecLazyBodies() {
+        Ast.Source source = new Parser(new Lexer(Sources.fields(10) + "DEF f(x) DO RETURN x; END DEF g() DO f(1); END").lex()).parseSource();
+        byte[] bytes = AstCodec.encode(source);
+        // the last literal index of the last body is corrupt, which is only seen once it is read
+        byte[] corrupt = bytes.clone();
+        corrupt[corrupt.length - 1] = 0x7F;
+        Ast.Source lazy = AstCodec.decode(ByteBuffer.wrap(corrupt));
+        Assertions.assertEquals(source.getFields(), lazy.getFields());
+        Assertions.assertEquals("g", lazy.getMethods().get(1).getName());
+        Assertions.assertEquals(source.getMethods().get(0), lazy.getMethods().get(0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> lazy.getMethods().get(1).getStatements().size());
+        // a cut off body is caught by the body lengths before any body is read
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> AstCodec.decode(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 3))));
+        byte[] version = bytes.clone();
+        version[4] = AstCodec.VERSION + 1;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(version)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(new byte[] {'P', 'L'})));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> AstCodec.encode(new Ast.Source(Arrays.asList(new Ast.Field("x", false,
+                        Optional.of(new Ast.Expression.Literal(1.5)))), Arrays.asList())));
+    }
+
+    @Test
+    void testCodecCorruptCounts() {
+        // a string table of 2^32 - 1 entries, and one of -1 entries
+        byte[] huge = {'P', 'L', 'C', 'A', AstCodec.VERSION, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(huge)));
+        byte[] negative = {'P', 'L', 'C', 'A', AstCodec.VERSION,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(negative)));
+        // a string longer than the rest of the buffer
+        byte[] length = {'P', 'L', 'C', 'A', AstCodec.VERSION, 1, 0x7F, 'a'};
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(length)));
+        // a body whose statement count exceeds its bytes, read lazily
+        Ast.Source source = new Parser(new Lexer("DEF f() DO END").lex()).parseSource();
+        byte[] bytes = AstCodec.encode(source);
+        bytes[bytes.length - 1] = 0x7F;
+        Ast.Source body = AstCodec.decode(ByteBuffer.wrap(bytes));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> body.getMethods().get(0).getStatements().size());
+    }
+
+    @Test
+    void testParallel() {
+        String input = Sources.fields(1_000) + Sources.methods(50_000);
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int chunks : new int[] {1, 2, 7, 64, 100_000}) {
+                Assertions.assertEquals(expected, new Parser(new Lexer(input).lex()).parseParallel(pool, chunks), "chunks " + chunks);
+                Assertions.assertEquals(expected, new Parser(new Lexer(input).lexBuffer(), Parser.Mode.ITERATIVE)
+                        .withLazyBodies(true).parseParallel(pool, chunks), "chunks " + chunks);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Assertions.assertThrows(UnsupportedOperationException.class,
+                () -> new Parser(new TokenRing(128)).parseParallel(ForkJoinPool.commonPool(), 2));
+    }
+
+    @Test
+    void testParallelException() {
+        // errors in several chunks, one running past the end of its chunk
+        String input = Sources.fields(50) + "LET a = ;" + Sources.methods(5_000)
+                + "DEF f(x, 1) DO y = (1 + ; END DEF g() DO IF x DO" + Sources.methods(5_000)
+                + "LET c;";
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParseException expected = Assertions.assertThrows(ParseException.class,
+                    () -> new Parser(new Lexer(input).lex()).parseSource());
+            Diagnostics sequential = new Diagnostics();
+            Ast.Source recovered = new Parser(new Lexer(input).lex()).withDiagnostics(sequential).parseSource();
+            for (int chunks : new int[] {2, 7, 64}) {
+                ParseException exception = Assertions.assertThrows(ParseException.class,
+                        () -> new Parser(new Lexer(input).lex()).parseParallel(pool, chunks));
+                Assertions.assertEquals(expected.getMessage() + "@" + expected.getIndex(),
+                        exception.getMessage() + "@" + exception.getIndex());
+                Diagnostics diagnostics = new Diagnostics();
+                Assertions.assertEquals(recovered, new Parser(new Lexer(input).lex()).withDiagnostics(diagnostics).parseParallel(pool, chunks));
+                Assertions.assertEquals(sequential.toString(), diagnostics.toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a method at the very first token stops every later LET from
+     * starting a chunk, so a field after it is still an error, as it is when
+     * parsing sequentially.
+     */
+    @Test
+    void testParallelLeadingMethod() {
+        String[] inputs = {
+                "DEF f() DO END LET x = 1;",
+                "DEF f() DO END DEF g() DO RETURN 1; END LET x; LET y; LET z;",
+                "DEF f() DO RETURN 1; END DEF g() DO END DEF h() DO END",
+        };
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (String input : inputs) {
+                String expected;
+                try {
+                    expected = new Parser(new Lexer(input).lex()).parseSource().toString();
+                } catch (ParseException e) {
+                    expected = e.getMessage() + "@" + e.getIndex();
+                }
+                Diagnostics sequential = new Diagnostics();
+                Ast.Source recovered = new Parser(new Lexer(input).lex()).withDiagnostics(sequential).parseSource();
+                for (int chunks : new int[] {2, 3, 7}) {
+                    String actual;
+                    try {
+                        actual = new Parser(new Lexer(input).lex()).parseParallel(pool, chunks).toString();
+                    } catch (ParseException e) {
+                        actual = e.getMessage() + "@" + e.getIndex();
+                    }
+                    Assertions.assertEquals(expected, actual, input + " in " + chunks);
+                    Diagnostics diagnostics = new Diagnostics();
+                    Assertions.assertEquals(recovered, new Parser(new Lexer(input).lex()).withDiagnostics(diagnostics).parseParallel(pool, chunks));
+                    Assertions.assertEquals(sequential.toString(), diagnostics.toString());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Builds a random valid expression nested at most to the given depth.
+     */
+    private static String expression(Random random, int depth) {
+        String[] operators = {"&&", "||", "==", "!=", "<", "<=", ">", ">=", "+", "-", "*", "/"};
+        switch (depth == 0 ? random.nextInt(3) : random.nextInt(8)) {
+            case 0: return "x" + random.nextInt(10);
+            case 1: return Integer.toString(random.nextInt(1000));
+            case 2: return random.nextBoolean() ? "NIL" : "'c'";
+            case 3: return "(" + expression(random, depth - 1) + ")";
+            case 4: {
+                StringBuilder builder = new StringBuilder(random.nextBoolean() ? "f(" : expression(random, depth - 1) + ".m(");
+                for (int i = random.nextInt(3); i > 0; i--) {
+                    builder.append(expression(random, depth - 1)).append(i > 1 ? ", " : "");
+                }
+                return builder.append(')').toString();
+            }
+            case 5: return expression(random, depth - 1) + ".y";
+            default: return expression(random, depth - 1) + " " + operators[random.nextInt(operators.length)] + " " + expression(random, depth - 1);
+        }
+    }
+
+    private static Ast.Expression binary(String operator, Ast.Expression left, Ast.Expression right) {
+        return new Ast.Expression.Binary(operator, left, right);
+    }
+
+    private static Ast.Statement error(String message) {
+        return new Ast.Statement.Expression(new Ast.Expression.Error(message));
+    }
+
+    private static Ast.Expression access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
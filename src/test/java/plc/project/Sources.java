@@ -0,0 +1,50 @@
+package plc.project;
+
+/**
+ * Generated sources shared by the parser tests and benchmarks.
+ */
+final class Sources {
+
+    /**
+     * A method declaration, which {@link LexerBenchmark} also lexes after a
+     * field in its sample.
+     */
+    static final String METHOD = String.join("\n",
+            "DEF fibonacci(n) DO",
+            "    LET previous = 0;",
+            "    LET current = 1;",
+            "    WHILE counter < n DO",
+            "        next_value = previous + current * 2 - 1.5;",
+            "        print(\"value:\\t\", next_value, 'c');",
+            "        counter = counter + 1;",
+            "    END",
+            "    RETURN current != NIL && TRUE;",
+            "END",
+            "");
+
+    private Sources() {}
+
+    /**
+     * Builds a source of the given number of fields with arithmetic values.
+     */
+    static String fields(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("LET x").append(i).append(" = (a + ").append(i).append(") * b.c(d, 2.5) - e;\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Builds a source of at least the given number of characters made only of
+     * methods, which can follow fields.
+     */
+    static String methods(int size) {
+        StringBuilder builder = new StringBuilder(size + METHOD.length());
+        while (builder.length() < size) {
+            builder.append(METHOD);
+        }
+        return builder.toString();
+    }
+
+}